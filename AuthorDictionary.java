@@ -0,0 +1,64 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Distinct author names of a catalog, numbered from 0 in order of first use.
+// A book refers to its author's entry (BookRecord.authorId) and shares the entry's
+// String, so the hundreds of books of one author hold a single copy of the name.
+// BookRepository indexes authors per entry rather than per book, and CatalogFile
+// writes the entries as the author table of the file, so the numbers also hold for
+// a catalog mapped back in (see MappedCatalog).
+//
+// Entries are only ever appended, so a number keeps its name for good and a Snapshot
+// can read the names array without a lock. An entry whose books are all gone stays
+// until the dictionary is cleared.
+final class AuthorDictionary {
+    private String[] names = new String[64];
+    private int size;
+    private final Map<String, Integer> entries = new HashMap<>();
+
+    int size() {
+        return size;
+    }
+
+    // Entry of the name, added if new
+    int intern(String name) {
+        Integer entry = entries.get(name);
+        if (entry != null) return entry;
+        if (size == names.length) names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        entries.put(name, size);
+        return size++;
+    }
+
+    String name(int entry) {
+        if (entry < 0 || entry >= size) throw new IndexOutOfBoundsException("Author entry: " + entry + ", size: " + size);
+        return names[entry];
+    }
+
+    // The names array itself; entries below size() never change, the ones above may be
+    // filled in later and the array is replaced when it grows
+    String[] names() {
+        return names;
+    }
+
+    // Starts over with the author table of a mapped catalog, keeping its numbering;
+    // a repeated name keeps the entry of its first occurrence for new books
+    void adopt(MappedCatalog catalog) {
+        clear();
+        int count = catalog.authorCount();
+        names = new String[Math.max(64, count + count / 8)];
+        for (int i = 0; i < count; i++) {
+            names[i] = catalog.author(i);
+            entries.putIfAbsent(names[i], i);
+        }
+        size = count;
+    }
+
+    // A new array, as snapshots may still read the old one
+    void clear() {
+        names = new String[64];
+        size = 0;
+        entries.clear();
+    }
+}
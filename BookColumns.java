@@ -0,0 +1,222 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+// Column storage of books for BookRepository (Storage.COLUMNS and OFF_HEAP): per row an id,
+// the author's AuthorDictionary entry and the offset and length of the title in one UTF-8
+// byte arena, so a book costs its title bytes and 20 bytes of arrays instead of a
+// BookRecord and a String with their headers. Books are decoded into short-lived
+// BookRecords when read, except by substring scans, which match the title bytes in place
+// (see Matcher). The arena is a heap ByteBuffer, or a direct one outside the Java heap;
+// only absolute gets and puts are used on it.
+//
+// A changed title is appended and the old bytes are left as garbage; once garbage is the
+// larger part of the arena, the titles are copied into a new one. Rows are the repository's
+// slots. After view() the first rows are seen by a snapshot, so the arrays are copied
+// before one of those rows is next overwritten, as BookRepository does with its slots;
+// arena bytes are never overwritten, and a new arena leaves the old one to the snapshot.
+final class BookColumns {
+    private static final int MIN_COMPACT_BYTES = 1 << 20;
+    // Languages whose lower case String.toLowerCase() does not take char by char
+    private static final Set<String> SPECIAL_CASING = Set.of("tr", "az", "lt");
+
+    private final boolean direct;
+    private long[] ids;
+    private int[] authors;
+    private int[] titleOffsets;
+    private int[] titleLengths;
+    private ByteBuffer titles;
+    private int used; // Arena bytes written
+    private int garbage; // Arena bytes no row refers to
+    private int rows; // Rows below this may hold a title
+    private int sharedRows;
+
+    BookColumns(int capacity, boolean direct) {
+        this.direct = direct;
+        ids = new long[capacity];
+        authors = new int[capacity];
+        titleOffsets = new int[capacity];
+        titleLengths = new int[capacity];
+        titles = allocate(Math.max(1024, capacity * 32));
+    }
+
+    private BookColumns(BookColumns columns) {
+        direct = columns.direct;
+        ids = columns.ids;
+        authors = columns.authors;
+        titleOffsets = columns.titleOffsets;
+        titleLengths = columns.titleLengths;
+        titles = columns.titles;
+        used = columns.used;
+        rows = columns.rows;
+    }
+
+    // Read-only copy of the rows below the given count as they are now, for a snapshot
+    BookColumns view(int rowCount) {
+        sharedRows = Math.max(sharedRows, rowCount);
+        return new BookColumns(this);
+    }
+
+    // Book of the row, with the author name taken from the dictionary names
+    BookRecord get(int row, String[] authorNames) {
+        int author = authors[row];
+        return new BookRecord(ids[row], title(row), author, authorNames[author]);
+    }
+
+    int author(int row) {
+        return authors[row];
+    }
+
+    String title(int row) {
+        int offset = titleOffsets[row];
+        int length = titleLengths[row];
+        if (titles.hasArray()) return new String(titles.array(), titles.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        titles.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Stores the book in the row, replacing whatever the row held
+    void set(int row, BookRecord book) {
+        byte[] title = book.title.getBytes(StandardCharsets.UTF_8);
+        if (row >= ids.length) resize(Math.max(row + 1, ids.length * 2));
+        else if (row < sharedRows) resize(ids.length);
+        release(row);
+        if (used + garbage > MIN_COMPACT_BYTES && garbage > used / 2) compact();
+        if ((long) used + title.length > titles.capacity()) grow(title.length);
+        titles.put(used, title);
+        ids[row] = book.id;
+        authors[row] = book.authorId;
+        titleOffsets[row] = used;
+        titleLengths[row] = title.length;
+        used += title.length;
+        rows = Math.max(rows, row + 1);
+    }
+
+    // Frees the row of a deleted book; its title becomes garbage
+    void clear(int row) {
+        if (row >= rows) return;
+        if (row < sharedRows) resize(ids.length);
+        release(row);
+    }
+
+    private void release(int row) {
+        if (row >= rows) return;
+        garbage += titleLengths[row];
+        titleLengths[row] = 0;
+        titleOffsets[row] = 0;
+    }
+
+    // Copies the arrays, to the given capacity, so that a snapshot keeps the old ones
+    private void resize(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        authors = Arrays.copyOf(authors, capacity);
+        titleOffsets = Arrays.copyOf(titleOffsets, capacity);
+        titleLengths = Arrays.copyOf(titleLengths, capacity);
+        sharedRows = 0;
+    }
+
+    private void grow(int needed) {
+        long capacity = Math.max((long) titles.capacity() * 3 / 2, (long) used + needed);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            if ((long) used + needed > Integer.MAX_VALUE - 8) throw new IllegalStateException("Title storage is full: " + used + " bytes");
+            capacity = Integer.MAX_VALUE - 8;
+        }
+        ByteBuffer bigger = allocate((int) capacity);
+        bigger.put(0, titles, 0, used);
+        titles = bigger;
+    }
+
+    // Copies the titles of the rows into a new arena, dropping the garbage
+    private void compact() {
+        int live = used - garbage;
+        ByteBuffer compacted = allocate(Math.max(1024, live + live / 2));
+        int[] offsets = new int[titleOffsets.length];
+        int at = 0;
+        for (int row = 0; row < rows; row++) {
+            int length = titleLengths[row];
+            if (length == 0) continue;
+            compacted.put(at, titles, titleOffsets[row], length);
+            offsets[row] = at;
+            at += length;
+        }
+        titles = compacted;
+        titleOffsets = offsets;
+        used = at;
+        garbage = 0;
+    }
+
+    // Substring matcher for the titles of these columns; one per thread
+    Matcher matcher(String foldedQuery) {
+        return new Matcher(foldedQuery);
+    }
+
+    // Checks whether a title lower-cased by NGramIndex.fold contains the query, decoding the
+    // UTF-8 bytes into a reused buffer instead of making two Strings per title. Chars are
+    // lower-cased one by one, which is what String.toLowerCase() does except for capital
+    // sigma and dotted I and in a few locales: those titles take the String way.
+    final class Matcher {
+        private final char[] query;
+        private final String foldedQuery;
+        private final boolean perChar = !SPECIAL_CASING.contains(Locale.getDefault().getLanguage());
+        private final byte[] bytes = titles.hasArray() ? titles.array() : null; // Heap arena, read directly
+        private final int base = titles.hasArray() ? titles.arrayOffset() : 0;
+        private char[] buffer = new char[128];
+
+        private Matcher(String foldedQuery) {
+            this.foldedQuery = foldedQuery;
+            query = foldedQuery.toCharArray();
+        }
+
+        boolean matches(int row) {
+            if (!perChar) return NGramIndex.fold(title(row)).contains(foldedQuery);
+            int end = titleOffsets[row] + titleLengths[row];
+            int n = 0;
+            for (int i = titleOffsets[row]; i < end; ) {
+                if (n + 2 > buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                int b = at(i) & 0xFF;
+                int c;
+                if (b < 0x80) {
+                    // ASCII and the basic Cyrillic letters are lower-cased inline
+                    buffer[n++] = (char) (b >= 'A' && b <= 'Z' ? b + 32 : b);
+                    i++;
+                    continue;
+                } else if (b < 0xE0) {
+                    c = (b & 0x1F) << 6 | (at(i + 1) & 0x3F);
+                    i += 2;
+                    if (c >= 'А' && c <= 'я') {
+                        buffer[n++] = (char) (c <= 'Я' ? c + 32 : c);
+                        continue;
+                    }
+                } else if (b < 0xF0) {
+                    c = (b & 0x0F) << 12 | (at(i + 1) & 0x3F) << 6 | (at(i + 2) & 0x3F);
+                    i += 3;
+                } else {
+                    c = (b & 0x07) << 18 | (at(i + 1) & 0x3F) << 12 | (at(i + 2) & 0x3F) << 6 | (at(i + 3) & 0x3F);
+                    i += 4;
+                }
+                if (c == '\u03A3' || c == '\u0130') return NGramIndex.fold(title(row)).contains(foldedQuery);
+                n += Character.toChars(Character.toLowerCase(c), buffer, n);
+            }
+            if (query.length == 0) return true;
+            char first = query[0];
+            for (int start = 0; start + query.length <= n; start++) {
+                if (buffer[start] != first) continue;
+                int k = 1;
+                while (k < query.length && buffer[start + k] == query[k]) k++;
+                if (k == query.length) return true;
+            }
+            return false;
+        }
+
+        private byte at(int index) {
+            return bytes != null ? bytes[base + index] : titles.get(index);
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
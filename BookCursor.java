@@ -0,0 +1,46 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Books read a page at a time, e.g. the matches of a search (see BookRepository.cursor).
+// Only the books a page needs are looked at, so the first page of a query that matches
+// most of the catalog comes back as fast as the first page of a narrow one.
+// A cursor is meant for one thread at a time.
+interface BookCursor {
+    // Up to limit further books; fewer only at the end, or for a search if the thread
+    // is interrupted (the caller should then drop the cursor)
+    List<BookRecord> next(int limit);
+
+    // Whether next() has another book to return
+    boolean hasNext();
+
+    // Passes over up to count books without decoding them, for offset paging;
+    // returns how many there were
+    int skip(int count);
+
+    // Cursor over a list that is already complete, e.g. the ranked fuzzy matches
+    static BookCursor of(List<BookRecord> books) {
+        return new BookCursor() {
+            private int position;
+
+            @Override
+            public List<BookRecord> next(int limit) {
+                int end = (int) Math.min(books.size(), (long) position + limit);
+                List<BookRecord> page = new ArrayList<>(books.subList(position, end));
+                position = end;
+                return page;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return position < books.size();
+            }
+
+            @Override
+            public int skip(int count) {
+                int skipped = Math.min(count, books.size() - position);
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+import javax.swing.*;
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
+
+// List model that reads rows straight from the repository (or from a search result)
+// when the JList asks for them. Nothing is copied or formatted up front,
+// and every refresh fires one removal and one insertion event.
+// Search results arrive a page at a time and are appended as they come, and so do the
+// books of a catalog that is still loading (see showAdded).
+final class BookListModel extends AbstractListModel<BookRecord> {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    // Row past the end of a catalog that shrank since the list was last refreshed
+    static final BookRecord GONE = new BookRecord(0, "", "");
+    private final BookRepository books;
+    private List<BookRecord> filtered; // null = whole catalog
+    private BookRepository.Order order = BookRepository.Order.ADDED; // Of the whole catalog
+    private int size;
+    private long version; // Repository version the whole catalog was last shown at
+
+    BookListModel(BookRepository books) {
+        this.books = books;
+    }
+
+    // Shows the whole catalog in the current order
+    void showAll() {
+        replace(null);
+    }
+
+    // Shows the books added since the last showAll() or showAdded(): while the whole
+    // catalog is shown in the order of addition and has only had books added since, the
+    // new rows go at the end and the rows on screen and the selection stay; after any
+    // other change the whole catalog is shown again
+    void showAdded() {
+        if (filtered != null) return;
+        int newSize;
+        long newVersion;
+        synchronized (books) {
+            newSize = books.size();
+            newVersion = books.version();
+        }
+        // An addition is one version and one more book; every other change takes a version
+        // without adding one. Only attach, which replaces the catalog in one version, could
+        // pass for an addition, and it happens while loading, which ends with showAll().
+        if (order != BookRepository.Order.ADDED || newVersion - version != newSize - size) {
+            replace(null);
+            return;
+        }
+        version = newVersion;
+        if (newSize == size) return;
+        int start = size;
+        size = newSize;
+        fireIntervalAdded(this, start, size - 1);
+    }
+
+    // Order of the whole catalog from the next showAll() on; the sorted orders are
+    // maintained by the repository, so switching costs no sorting
+    void setOrder(BookRepository.Order order) {
+        this.order = order;
+    }
+
+    // Shows only the given books, in the given order: the first page of search results
+    void showResults(List<BookRecord> results) {
+        replace(new ArrayList<>(results));
+    }
+
+    // Adds the next page of search results at the end
+    void append(List<BookRecord> page) {
+        if (filtered == null || page.isEmpty()) return;
+        int start = size;
+        filtered.addAll(page);
+        size = filtered.size();
+        fireIntervalAdded(this, start, size - 1);
+    }
+
+    boolean isFiltered() {
+        return filtered != null;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public BookRecord getElementAt(int index) {
+        if (filtered != null) return filtered.get(index);
+        // Books can be removed on another thread (undo, journal replay) before the refresh
+        // that follows reaches the list; until then the rows past the end show as GONE
+        synchronized (books) {
+            return index < books.size() ? books.getAt(order, index) : GONE;
+        }
+    }
+
+    private void replace(List<BookRecord> results) {
+        int oldSize = size;
+        filtered = results;
+        if (results != null) size = results.size();
+        else {
+            synchronized (books) {
+                size = books.size();
+                version = books.version();
+            }
+        }
+        // Same events as clear() + addAll(), so the JList drops its selection as before
+        if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+        if (size > 0) fireIntervalAdded(this, 0, size - 1);
+    }
+}
@@ -0,0 +1,41 @@
+// Immutable book entry stored in the shared catalog (BookRepository)
+final class BookRecord {
+    // Stable identifier, never reused within a catalog
+    final long id;
+    final String title;
+    final String author;
+    // Entry of the author in the catalog's AuthorDictionary, -1 for a book not made by a
+    // repository (e.g. a prototype or one read from an old file before it is added)
+    final int authorId;
+
+    BookRecord(long id, String title, String author) {
+        this(id, title, -1, author);
+    }
+
+    BookRecord(long id, String title, int authorId, String author) {
+        this.id = id;
+        this.title = title;
+        this.authorId = authorId;
+        this.author = author;
+    }
+
+    // Same id, title and author. A repository that keeps its books in columns (see
+    // BookRepository.Storage) hands out a new record on every read, so identity means nothing.
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof BookRecord)) return false;
+        BookRecord book = (BookRecord) other;
+        return id == book.id && title.equals(book.title) && author.equals(book.author);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id) * 31 + title.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return title + ", " + author;
+    }
+}
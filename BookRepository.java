@@ -0,0 +1,1237 @@
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+// Shared book storage used by both LibraryManager and LibraryManagerGUI.
+// Books keep their display order in a slot array (deleted slots become tombstones),
+// a Fenwick tree over live slots gives O(log n) access by position,
+// and hash indexes give O(1) lookup by id, normalized title and normalized author,
+// and of the books with the same contents (see contentKey) for the duplicate checks.
+// Substring search goes through n-gram indexes over titles and authors.
+// Author names go through an AuthorDictionary: books of one author share its entry,
+// and the author indexes map to entries, so they grow with the authors, not the books.
+// Changes and lookups are synchronized. Whole-catalog reads (iteration, export, short-query
+// scans) run without the lock on a Snapshot: an immutable view that shares the slot array
+// with the repository, which copies the array before it next overwrites a shared slot.
+// Taking a snapshot is O(1), so the GUI can search and export while an import is running.
+//
+// A repository can also be attached to a memory-mapped catalog file: its books are then
+// decoded only when first touched, and the indexes are filled in later, on the first
+// lookup that needs them or by buildIndexes() from a background thread.
+// Books in slots below indexedSlots are in the indexes, the ones above are not yet.
+//
+// With Storage.COLUMNS or OFF_HEAP the slots hold no BookRecords: live slots point to
+// STORED and the books themselves are kept as primitives and UTF-8 bytes in BookColumns,
+// decoded again on every read.
+//
+// Besides the display order, books can be read in title or author order (see Order).
+// Those orders are kept in SortedViews, built on first use and then updated on every change.
+// The word indexes of the typo-tolerant search (FuzzyIndex) and the autocomplete tries
+// (CompletionIndex) are kept the same way.
+final class BookRepository implements Iterable<BookRecord> {
+    // Orders getAt(Order, int) can read the books in
+    enum Order {
+        ADDED, // Display order: insertion order, or the order of the last sort()
+        TITLE, // By title, then author (SortKey collation)
+        AUTHOR // By author, then title
+    }
+
+    // Fields a substring search looks at
+    enum Field {
+        ALL, // Title or author
+        TITLE,
+        AUTHOR
+    }
+
+    // How the books are kept in memory; the default comes from the library.storage
+    // system property (objects, columns or off-heap)
+    enum Storage {
+        OBJECTS, // A BookRecord per book
+        COLUMNS, // BookColumns on the heap: fewer objects for multi-million-book catalogs
+        OFF_HEAP // BookColumns with the title bytes in direct memory, outside the Java heap
+    }
+
+    // What addAll does with a book whose contents (see contentKey) are already in the catalog
+    // or earlier in the same batch; the default comes from the library.duplicates system
+    // property (keep, skip or merge)
+    enum Duplicates {
+        KEEP, // Add it anyway
+        SKIP, // Leave it out
+        MERGE // Leave it out, and give the book already there its spelling
+    }
+
+    static final Duplicates DEFAULT_DUPLICATES = Duplicates.valueOf(System.getProperty("library.duplicates", "skip").toUpperCase(Locale.ROOT));
+
+    static final Storage DEFAULT_STORAGE = Storage.valueOf(System.getProperty("library.storage", "objects").toUpperCase(Locale.ROOT).replace('-', '_'));
+
+    private static final int INITIAL_CAPACITY = 16;
+    static final int DEFAULT_GRAM_LENGTH = 3;
+    private static final int INDEX_CHUNK = 4096;
+    // Marks a slot of the mapped catalog that has not been decoded yet
+    private static final BookRecord UNLOADED = new BookRecord(0, "", "");
+    // Marks a slot whose book is in the columns
+    private static final BookRecord STORED = new BookRecord(0, "", "");
+
+    private BookRecord[] slots = new BookRecord[INITIAL_CAPACITY];
+    private int[] tree = new int[INITIAL_CAPACITY + 1]; // Fenwick tree of live flags, 1-based
+    private int slotCount; // Used slots including tombstones
+    private int size; // Live books
+    private long nextId = 1;
+    private long version; // Bumped on every change to the books or their order
+    private int indexedSlots;
+    private MappedCatalog base; // Catalog whose position i is slot i, until the slots are rebuilt
+    private final IdMap slotById = new IdMap(); // Books not in the base
+    private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private Snapshot snapshot; // Last one taken, handed out again while nothing changes
+    private int sharedSlots; // Slots below this are seen by a snapshot and must not be overwritten in place
+    private final Storage storage;
+    private BookColumns columns; // null with Storage.OBJECTS
+    private SortedView titleOrder; // null until first used
+    private SortedView authorOrder;
+    private FuzzyIndex titleWords; // null until the first fuzzy search
+    private FuzzyIndex authorWords;
+    private CompletionIndex titleCompletions; // null until the first completion
+    private CompletionIndex authorCompletions;
+    private final AuthorDictionary authorNames = new AuthorDictionary();
+    private final QueryCache queryCache = new QueryCache();
+    private IdList[] authorBooks = new IdList[64]; // Indexed books per author entry; null before its first
+    private final KeyIndex byTitle = new KeyIndex();
+    private final ContentIndex byContent = new ContentIndex();
+    private final KeyIndex byAuthor = new KeyIndex(); // Normalized name to author entries
+    private final NGramIndex titleGrams;
+    private final NGramIndex authorGrams; // Over author entries
+
+    BookRepository() {
+        this(DEFAULT_GRAM_LENGTH);
+    }
+
+    BookRepository(int gramLength) {
+        this(gramLength, DEFAULT_STORAGE);
+    }
+
+    BookRepository(int gramLength, Storage storage) {
+        this.storage = storage;
+        titleGrams = new NGramIndex(gramLength);
+        authorGrams = new NGramIndex(gramLength);
+        columns = newColumns(INITIAL_CAPACITY);
+    }
+
+    // Normalized form used as a lookup key: trimmed, single spaces, lower case
+    static String normalize(String value) {
+        if (isSingleSpaced(value)) return value.toLowerCase();
+        StringBuilder sb = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) sb.append(' ');
+            space = false;
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    static boolean isSingleSpaced(String value) {
+        int last = value.length() - 1;
+        if (last < 0) return true;
+        if (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(last))) return false;
+        for (int i = 1; i < last; i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c) && (c != ' ' || Character.isWhitespace(value.charAt(i + 1)))) return false;
+        }
+        return true;
+    }
+
+    // Contents compared by the duplicate checks: title and author trimmed, with single
+    // spaces, in lower case and with ё read as е, separated by a line break
+    static String contentKey(String title, String author) {
+        StringBuilder key = new StringBuilder(title.length() + author.length() + 1);
+        for (int i = 0, space = 0; i < title.length() + 1 + author.length(); i++) {
+            char c = contentChar(title, author, i);
+            if (c == ' ') space = key.length() > 0 && key.charAt(key.length() - 1) != '\n' ? 1 : 0;
+            else {
+                if (space == 1 && c != '\n') key.append(' ');
+                space = 0;
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    // 64-bit FNV-1a hash of contentKey(title, author), computed without building it
+    static long contentHash(String title, String author) {
+        long hash = 0xCBF29CE484222325L;
+        boolean started = false; // A char of the current field was hashed
+        boolean space = false;
+        for (int i = 0; i < title.length() + 1 + author.length(); i++) {
+            char c = contentChar(title, author, i);
+            if (c == ' ') {
+                space = started;
+                continue;
+            }
+            if (space && c != '\n') hash = (hash ^ ' ') * 0x100000001B3L;
+            hash = (hash ^ c) * 0x100000001B3L;
+            started = c != '\n';
+            space = false;
+        }
+        return hash;
+    }
+
+    // Char i of title + '\n' + author as contentKey compares it, any whitespace as ' '
+    private static char contentChar(String title, String author, int i) {
+        if (i == title.length()) return '\n';
+        char c = i < title.length() ? title.charAt(i) : author.charAt(i - title.length() - 1);
+        if (Character.isWhitespace(c)) return ' ';
+        c = Character.toLowerCase(c);
+        return c == 'ё' ? 'е' : c;
+    }
+
+    // Whether the book's title or author contains the folded query (see NGramIndex.fold)
+    static boolean matches(BookRecord book, String foldedQuery) {
+        return NGramIndex.fold(book.title).contains(foldedQuery) || NGramIndex.fold(book.author).contains(foldedQuery);
+    }
+
+    // The listener is told about changes made from now on; attach() is not reported
+    void addListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(CatalogListener listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized BookRecord add(String title, String author) {
+        CatalogEvent timing = Metrics.ADD.start();
+        BookRecord book = insert(record(nextId++, title, author));
+        Metrics.ADD.stop(timing);
+        return book;
+    }
+
+    // Adds the first count books of the arrays under one lock, e.g. a batch of a bulk import
+    synchronized void addAll(String[] titles, String[] authors, int count) {
+        CatalogEvent timing = Metrics.ADD_ALL.start();
+        queryCache.clear();
+        for (int i = 0; i < count; i++) insert(record(nextId++, titles[i], authors[i]));
+        Metrics.ADD_ALL.stop(timing, null, count);
+    }
+
+    // Same, applying the duplicates policy to each book; returns how many books were
+    // left out or merged as duplicates
+    synchronized int addAll(String[] titles, String[] authors, int count, Duplicates policy) {
+        if (policy == Duplicates.KEEP) {
+            addAll(titles, authors, count);
+            return 0;
+        }
+        CatalogEvent timing = Metrics.ADD_ALL.start();
+        queryCache.clear();
+        ensureIndexed(); // Added books are then indexed at once, so later ones of the batch see them
+        int duplicates = 0;
+        for (int i = 0; i < count; i++) {
+            BookRecord existing = duplicateOf(titles[i], authors[i]);
+            if (existing == null) {
+                insert(record(nextId++, titles[i], authors[i]));
+                continue;
+            }
+            duplicates++;
+            if (policy == Duplicates.MERGE && (!existing.title.equals(titles[i]) || !existing.author.equals(authors[i]))) {
+                update(existing.id, titles[i], authors[i]);
+            }
+        }
+        Metrics.ADD_ALL.stop(timing, null, count);
+        return duplicates;
+    }
+
+    // Adds a book that already has an id, e.g. when a saved catalog is loaded
+    synchronized BookRecord restore(long id, String title, String author) {
+        if (slotOf(id) >= 0) throw new IllegalArgumentException("Duplicate book id: " + id);
+        nextId = Math.max(nextId, id + 1);
+        return insert(record(id, title, author));
+    }
+
+    // Same, in front of the book with id followingId, as when undoing its removal; at the
+    // end if followingId is 0 or that book is gone. Right after the removal the book's old
+    // slot is still a tombstone before that book and is used again, which is O(log n);
+    // otherwise the slots are laid out anew, which is O(n).
+    synchronized BookRecord restore(long id, String title, String author, long followingId) {
+        int next = followingId == 0 ? -1 : slotOf(followingId);
+        if (next < 0) return restore(id, title, author);
+        if (slotOf(id) >= 0) throw new IllegalArgumentException("Duplicate book id: " + id);
+        nextId = Math.max(nextId, id + 1);
+        BookRecord book = record(id, title, author);
+        version++;
+        int slot = next - 1;
+        // A slot of the mapped catalog can only take the book the catalog has there (see slotOf)
+        if (slot >= 0 && slots[slot] == null && (base == null || slot >= base.count || base.positionOf(id) == slot)) {
+            occupy(slot, book);
+        } else {
+            List<BookRecord> live = toList();
+            live.add(prefix(next), book);
+            rebuild(live, Math.max(INITIAL_CAPACITY, Integer.highestOneBit(live.size()) * 2));
+            slot = slotOf(id);
+        }
+        return added(slot, book, followingId);
+    }
+
+    // Same for books of a catalog being loaded, under one lock, so that a reader sees
+    // the catalog grow a chunk at a time
+    synchronized void restoreAll(List<BookRecord> loaded) {
+        CatalogEvent timing = Metrics.ADD_ALL.start();
+        queryCache.clear();
+        for (BookRecord book : loaded) restore(book.id, book.title, book.author);
+        Metrics.ADD_ALL.stop(timing, null, loaded.size());
+    }
+
+    // Id the next added book will get
+    synchronized long nextId() {
+        return nextId;
+    }
+
+    // Makes sure ids below the given value are never handed out again
+    synchronized void reserveIds(long next) {
+        nextId = Math.max(nextId, next);
+    }
+
+    // New book with the author's dictionary entry and its shared name
+    private BookRecord record(long id, String title, String author) {
+        int entry = authorNames.intern(author);
+        return new BookRecord(id, title, entry, authorNames.name(entry));
+    }
+
+    private BookRecord insert(BookRecord book) {
+        version++;
+        if (slotCount == slots.length) grow();
+        int slot = slotCount++;
+        occupy(slot, book);
+        if (indexedSlots == slot) indexedSlots++;
+        return added(slot, book, 0);
+    }
+
+    // Makes a free slot live with the book
+    private void occupy(int slot, BookRecord book) {
+        store(slot, book);
+        treeAdd(slot, 1);
+        size++;
+        slotById.put(book.id, slot);
+    }
+
+    // Brings the views and indexes up to date with a book just put in the slot, and tells
+    // the listeners
+    private BookRecord added(int slot, BookRecord book, long followingId) {
+        if (titleOrder != null) titleOrder.add(book);
+        if (authorOrder != null) authorOrder.add(book);
+        if (titleWords != null) {
+            titleWords.add(book);
+            authorWords.add(book);
+        }
+        if (titleCompletions != null) {
+            titleCompletions.add(book);
+            authorCompletions.add(book);
+        }
+        if (slot < indexedSlots) indexAdd(book);
+        queryCache.changed(null, book);
+        for (CatalogListener listener : listeners) listener.bookAdded(book, followingId);
+        return book;
+    }
+
+    // Replaces the contents with the books of a mapped catalog without decoding them.
+    // Takes O(1) work per book (a slot and a tree entry); the indexes stay empty until
+    // buildIndexes() or the first lookup that needs them. The file's author table
+    // becomes the author dictionary, so the decoded books' authorIds stay valid.
+    synchronized void attach(MappedCatalog catalog) {
+        CatalogEvent timing = Metrics.ATTACH.start();
+        reset();
+        authorNames.adopt(catalog);
+        int count = catalog.count;
+        int capacity = Math.max(INITIAL_CAPACITY, count + count / 8);
+        slots = new BookRecord[capacity];
+        Arrays.fill(slots, 0, count, UNLOADED);
+        columns = newColumns(capacity);
+        slotCount = count;
+        size = count;
+        buildTree(capacity);
+        base = catalog;
+        nextId = Math.max(nextId, catalog.nextId);
+        Metrics.ATTACH.stop(timing, null, count);
+    }
+
+    synchronized BookRecord get(long id) {
+        int slot = slotOf(id);
+        return slot < 0 ? null : load(slot);
+    }
+
+    // Book at 0-based display position
+    synchronized BookRecord getAt(int position) {
+        if (position < 0 || position >= size) throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+        return load(select(position));
+    }
+
+    // 0-based display position of the book, or -1 if there is no such book
+    synchronized int positionOf(long id) {
+        int slot = slotOf(id);
+        return slot < 0 ? -1 : prefix(slot);
+    }
+
+    // Book at 0-based position in the given order; O(1) for the sorted orders
+    // once their view exists (building it takes one pass and a sort)
+    synchronized BookRecord getAt(Order order, int position) {
+        if (order == Order.ADDED) return getAt(position);
+        if (position < 0 || position >= size) throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+        return load(slotOf(view(order).idAt(position)));
+    }
+
+    // Books at positions offset to offset + limit - 1 in the given order, read under one lock;
+    // fewer (or none) near the end
+    synchronized List<BookRecord> page(Order order, int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("Offset: " + offset + ", limit: " + limit);
+        CatalogEvent timing = Metrics.PAGE.start();
+        int end = (int) Math.min(size, (long) offset + limit);
+        List<BookRecord> page = new ArrayList<>(Math.max(0, end - offset));
+        for (int position = offset; position < end; position++) page.add(getAt(order, position));
+        Metrics.PAGE.stop(timing, order.name(), page.size());
+        return page;
+    }
+
+    // 0-based position of the book in the given order, or -1 if there is no such book
+    synchronized int positionOf(Order order, long id) {
+        if (order == Order.ADDED) return positionOf(id);
+        int slot = slotOf(id);
+        return slot < 0 ? -1 : view(order).positionOf(load(slot));
+    }
+
+    private SortedView view(Order order) {
+        if (order == Order.TITLE) {
+            if (titleOrder == null) titleOrder = buildView(book -> SortKey.of(book.title, book.author));
+            return titleOrder;
+        }
+        if (authorOrder == null) authorOrder = buildView(book -> SortKey.of(book.author, book.title));
+        return authorOrder;
+    }
+
+    private SortedView buildView(Function<BookRecord, byte[]> keyOf) {
+        SortedView view = new SortedView(keyOf);
+        for (int slot = 0; slot < slotCount; slot++) if (slots[slot] != null) view.add(peek(slot));
+        return view;
+    }
+
+    synchronized BookRecord update(long id, String title, String author) {
+        int slot = slotOf(id);
+        if (slot < 0) return null;
+        CatalogEvent timing = Metrics.UPDATE.start();
+        BookRecord old = load(slot);
+        version++;
+        BookRecord book = record(id, title, author);
+        if (slot < indexedSlots) indexRemove(old);
+        store(slot, book);
+        if (slot < indexedSlots) indexAdd(book);
+        if (titleOrder != null) {
+            titleOrder.remove(old);
+            titleOrder.add(book);
+        }
+        if (authorOrder != null) {
+            authorOrder.remove(old);
+            authorOrder.add(book);
+        }
+        if (titleWords != null) {
+            titleWords.remove(old);
+            titleWords.add(book);
+            authorWords.remove(old);
+            authorWords.add(book);
+        }
+        if (titleCompletions != null) {
+            titleCompletions.remove(old);
+            titleCompletions.add(book);
+            authorCompletions.remove(old);
+            authorCompletions.add(book);
+        }
+        queryCache.changed(old, book);
+        for (CatalogListener listener : listeners) listener.bookUpdated(old, book);
+        Metrics.UPDATE.stop(timing);
+        return book;
+    }
+
+    synchronized BookRecord remove(long id) {
+        int slot = slotOf(id);
+        if (slot < 0) return null;
+        CatalogEvent timing = Metrics.REMOVE.start();
+        version++;
+        slotById.remove(id);
+        BookRecord old = load(slot);
+        set(slot, null);
+        if (columns != null) columns.clear(slot);
+        treeAdd(slot, -1);
+        size--;
+        int position = prefix(slot);
+        long followingId = position < size ? load(select(position)).id : 0;
+        if (slot < indexedSlots) indexRemove(old);
+        if (titleOrder != null) titleOrder.remove(old);
+        if (authorOrder != null) authorOrder.remove(old);
+        if (titleWords != null) {
+            titleWords.remove(old);
+            authorWords.remove(old);
+        }
+        if (titleCompletions != null) {
+            titleCompletions.remove(old);
+            authorCompletions.remove(old);
+        }
+        if (slotCount > INITIAL_CAPACITY && size < slotCount / 2) compact();
+        queryCache.changed(old, null);
+        for (CatalogListener listener : listeners) listener.bookRemoved(old, followingId);
+        Metrics.REMOVE.stop(timing);
+        return old;
+    }
+
+    // Adds not yet indexed books to the indexes a chunk at a time, so other threads
+    // get the lock in between; meant to run on a background thread after attach()
+    void buildIndexes() {
+        while (indexStep()) Thread.yield();
+    }
+
+    // Indexes the next chunk; returns whether there is more to do
+    private synchronized boolean indexStep() {
+        int end = Math.min(slotCount, indexedSlots + INDEX_CHUNK);
+        for (int slot = indexedSlots; slot < end; slot++) if (slots[slot] != null) indexAdd(peek(slot));
+        indexedSlots = end;
+        return indexedSlots < slotCount;
+    }
+
+    private void ensureIndexed() {
+        while (indexStep()) {
+        }
+    }
+
+    synchronized void clear() {
+        reset();
+        for (CatalogListener listener : listeners) listener.catalogCleared();
+    }
+
+    private void reset() {
+        version++;
+        slots = new BookRecord[INITIAL_CAPACITY];
+        tree = new int[INITIAL_CAPACITY + 1];
+        slotCount = 0;
+        size = 0;
+        indexedSlots = 0;
+        base = null;
+        sharedSlots = 0;
+        columns = newColumns(INITIAL_CAPACITY);
+        titleOrder = null;
+        authorOrder = null;
+        titleWords = null;
+        authorWords = null;
+        titleCompletions = null;
+        authorCompletions = null;
+        slotById.clear();
+        authorNames.clear();
+        authorBooks = new IdList[64];
+        byTitle.clear();
+        byContent.clear();
+        byAuthor.clear();
+        titleGrams.clear();
+        authorGrams.clear();
+        queryCache.clear();
+    }
+
+    // First book in display order with the same contents (see contentKey), or null
+    synchronized BookRecord findDuplicate(String title, String author) {
+        ensureIndexed();
+        return duplicateOf(title, author);
+    }
+
+    private BookRecord duplicateOf(String title, String author) {
+        long[] ids = byContent.get(contentHash(title, author));
+        if (ids.length == 0) return null;
+        String key = contentKey(title, author);
+        int first = -1;
+        for (long id : ids) {
+            int slot = slotOf(id);
+            if (first >= 0 && slot > first) continue;
+            BookRecord book = peek(slot);
+            if (contentKey(book.title, book.author).equals(key)) first = slot;
+        }
+        return first < 0 ? null : load(first);
+    }
+
+    // Groups of books with the same contents (see contentKey), each in display order, the
+    // groups in the order of their first books. Linear in the catalog size: only books
+    // sharing a content hash are looked at (see ContentIndex.repeated).
+    synchronized List<List<BookRecord>> duplicates() {
+        CatalogEvent timing = Metrics.DUPLICATES.start();
+        ensureIndexed();
+        List<int[]> groups = new ArrayList<>();
+        for (long[] ids : byContent.repeated()) {
+            // Books of one hash, split by their actual contents
+            Map<String, IdList> byKey = new HashMap<>();
+            for (long id : ids) {
+                int slot = slotOf(id);
+                BookRecord book = peek(slot);
+                byKey.computeIfAbsent(contentKey(book.title, book.author), key -> new IdList()).add(slot);
+            }
+            for (IdList slots : byKey.values()) {
+                if (slots.size() < 2) continue;
+                int[] group = new int[slots.size()];
+                for (int i = 0; i < group.length; i++) group[i] = (int) slots.get(i);
+                groups.add(group);
+            }
+        }
+        groups.sort(Comparator.comparingInt(group -> group[0]));
+        List<List<BookRecord>> found = new ArrayList<>(groups.size());
+        int books = 0;
+        for (int[] group : groups) {
+            List<BookRecord> list = new ArrayList<>(group.length);
+            for (int slot : group) list.add(load(slot));
+            found.add(list);
+            books += group.length;
+        }
+        Metrics.DUPLICATES.stop(timing, null, books);
+        return found;
+    }
+
+    // Books whose normalized title equals the normalized argument, in display order
+    synchronized List<BookRecord> findByTitle(String title) {
+        ensureIndexed();
+        return collect(byTitle.get(normalize(title)));
+    }
+
+    // Books whose normalized author equals the normalized argument, in display order
+    synchronized List<BookRecord> findByAuthor(String author) {
+        ensureIndexed();
+        int[] found = authorSlots(byAuthor.get(normalize(author)));
+        return inOrder(found, found.length);
+    }
+
+    // Case-insensitive substring search by title
+    List<BookRecord> searchTitle(String query) {
+        return cursor(query, Field.TITLE).next(Integer.MAX_VALUE);
+    }
+
+    // Case-insensitive substring search by author
+    List<BookRecord> searchAuthor(String query) {
+        return cursor(query, Field.AUTHOR).next(Integer.MAX_VALUE);
+    }
+
+    // Case-insensitive substring search by title or author
+    List<BookRecord> search(String query) {
+        return cursor(query, Field.ALL).next(Integer.MAX_VALUE);
+    }
+
+    // Books whose title or author words are all close to the query words, allowing typos
+    // and Latin or Cyrillic spelling (see FuzzyIndex); best matches first
+    List<BookRecord> searchFuzzy(String query) {
+        return matchFuzzy(query, true, true);
+    }
+
+    List<BookRecord> searchTitleFuzzy(String query) {
+        return matchFuzzy(query, true, false);
+    }
+
+    List<BookRecord> searchAuthorFuzzy(String query) {
+        return matchFuzzy(query, false, true);
+    }
+
+    // Up to limit titles and author names (of the given field, or both for ALL) that start
+    // with the prefix, or have an author word starting with it, ignoring case; the ones
+    // with the most books first (see CompletionIndex). Builds the tries on first use.
+    synchronized List<CompletionIndex.Completion> complete(String prefix, Field field, int limit) {
+        CatalogEvent timing = Metrics.COMPLETE.start();
+        if (titleCompletions == null) {
+            titleCompletions = new CompletionIndex(Field.TITLE);
+            authorCompletions = new CompletionIndex(Field.AUTHOR);
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (slots[slot] == null) continue;
+                BookRecord book = peek(slot);
+                titleCompletions.add(book);
+                authorCompletions.add(book);
+            }
+        }
+        List<CompletionIndex.Completion> found = new ArrayList<>();
+        if (field != Field.AUTHOR) found.addAll(titleCompletions.complete(prefix, limit));
+        if (field != Field.TITLE) found.addAll(authorCompletions.complete(prefix, limit));
+        found.sort(CompletionIndex.RANKING);
+        if (found.size() > limit) found = new ArrayList<>(found.subList(0, limit));
+        Metrics.COMPLETE.stop(timing, prefix, found.size());
+        return found;
+    }
+
+    // Reorders the books; ids stay the same
+    synchronized void sort(Comparator<BookRecord> comparator) {
+        CatalogEvent timing = Metrics.SORT.start();
+        version++;
+        List<BookRecord> live = toList();
+        live.sort(comparator);
+        rebuild(live, Math.max(INITIAL_CAPACITY, slots.length));
+        queryCache.clear();
+        Metrics.SORT.stop(timing, null, live.size());
+        for (CatalogListener listener : listeners) listener.catalogReordered();
+    }
+
+    synchronized List<BookRecord> toList() {
+        List<BookRecord> list = new ArrayList<>(size);
+        for (int slot = 0; slot < slotCount; slot++) if (slots[slot] != null) list.add(peek(slot));
+        return list;
+    }
+
+    // The books as they are now; later changes do not show in it
+    synchronized Snapshot snapshot() {
+        if (snapshot == null || snapshot.version != version || snapshot.nextId != nextId) {
+            snapshot = new Snapshot(slots, slotCount, size, base, columns == null ? null : columns.view(slotCount),
+                    version, nextId, authorNames.names(), authorNames.size());
+            sharedSlots = slotCount;
+        }
+        return snapshot;
+    }
+
+    // Iterates a snapshot, so the loop holds no lock and sees no concurrent changes
+    @Override
+    public Iterator<BookRecord> iterator() {
+        return snapshot().iterator();
+    }
+
+    // Matches of a case-insensitive substring search, in display order, read a page at
+    // a time from a snapshot taken now (see BookCursor)
+    BookCursor cursor(String query, Field field) {
+        return open(query, field, false, 0);
+    }
+
+    // Same, going on after the book with the given id, the last one of the previous page.
+    // Unlike an offset, such a key is not thrown off by books added or removed before it.
+    // Throws NoSuchElementException if the book is no longer there.
+    BookCursor cursor(String query, Field field, long afterId) {
+        return open(query, field, true, afterId);
+    }
+
+    // Results still in the query cache are served from there. Otherwise only the index
+    // lookup holds the lock; the cursor checks the candidates on a snapshot taken with it,
+    // and hands its results to the cache if it is read to the end. Queries shorter than the gram length scan the snapshot instead, and
+    // so do queries whose grams all occur in a large part of the catalog: their matches
+    // are usually dense, so a page fills after a few books, while listing all candidates
+    // would cost the same for any page. A query of common grams that rarely occur
+    // together scans further, at most as far as a full search.
+    private BookCursor open(String query, Field field, boolean resume, long afterId) {
+        CatalogEvent timing = Metrics.SEARCH.start();
+        String needle = NGramIndex.fold(query);
+        Snapshot scanned;
+        int after = -1;
+        int[] found = null;
+        try {
+            // The first lookup on an attached catalog builds the indexes a chunk at a time
+            // first, so other threads (the list on screen) get the lock in between
+            if (titleGrams.covers(needle)) buildIndexes();
+            synchronized (this) {
+                if (!resume) {
+                    List<BookRecord> cached = queryCache.get(field, false, needle);
+                    if (cached != null) return BookCursor.of(cached);
+                }
+                scanned = snapshot();
+                if (resume) {
+                    after = slotOf(afterId);
+                    if (after < 0) throw new NoSuchElementException("No book with id " + afterId);
+                }
+                if (titleGrams.covers(needle)) {
+                    ensureIndexed();
+                    found = candidates(needle, field != Field.AUTHOR, field != Field.TITLE);
+                }
+            }
+        } finally {
+            Metrics.SEARCH.stop(timing, query, found != null ? found.length : -1);
+        }
+        return new QueryCursor(this, field, scanned, needle, found, after);
+    }
+
+    // Sorted slots that may match (with repeats), or null if they are too many to be worth
+    // listing. Author names are checked here, once per dictionary entry, so only the
+    // books of matching authors become candidates.
+    private int[] candidates(String needle, boolean titles, boolean authors) {
+        int dense = Math.max(INDEX_CHUNK, slotCount / 8);
+        if (titles && titleGrams.estimate(needle) > dense) return null;
+        long[] titleIds = titles ? titleGrams.candidates(needle) : new long[0];
+        if (titleIds.length > dense) return null;
+        long[] entries = authors ? authorGrams.candidates(needle) : new long[0];
+        int kept = 0;
+        long authorBookCount = 0;
+        for (long entry : entries) {
+            if (!NGramIndex.fold(authorNames.name((int) entry)).contains(needle)) continue;
+            entries[kept++] = entry;
+            authorBookCount += authorBooks[(int) entry].size();
+        }
+        if (authorBookCount > dense) return null;
+        int[] authorSlots = authorSlots(Arrays.copyOf(entries, kept));
+        int[] found = Arrays.copyOf(authorSlots, titleIds.length + authorSlots.length);
+        int n = authorSlots.length;
+        for (long id : titleIds) found[n++] = slotOf(id);
+        Arrays.sort(found);
+        return found;
+    }
+
+    // Results of a fuzzy search, from the query cache if it has them, keyed by the query
+    // words as the search takes them
+    private synchronized List<BookRecord> matchFuzzy(String query, boolean titles, boolean authors) {
+        Field field = !authors ? Field.TITLE : titles ? Field.ALL : Field.AUTHOR;
+        String key = String.join(" ", FuzzyIndex.keys(query));
+        List<BookRecord> cached = queryCache.get(field, true, key);
+        if (cached != null) return new ArrayList<>(cached);
+        CatalogEvent timing = Metrics.SEARCH_FUZZY.start();
+        List<BookRecord> results = rankFuzzy(query, titles, authors);
+        Metrics.SEARCH_FUZZY.stop(timing, query, results.size());
+        queryCache.put(field, true, key, List.copyOf(results));
+        return results;
+    }
+
+    // Keeps the complete results of a cursor, unless the catalog changed since its snapshot
+    private synchronized void remember(Field field, String needle, long snapshotVersion, List<BookRecord> results) {
+        if (snapshotVersion == version) queryCache.put(field, false, needle, results);
+    }
+
+    // Hit and miss counts of the query cache, among others
+    synchronized QueryCache.Stats cacheStats() {
+        return queryCache.stats();
+    }
+
+    // Every query word must be near a word of a searched field. A book scores the sum of
+    // the distances of its nearest words; ties keep the display order. The word with the
+    // fewest candidate books is looked up first, the others are only checked against them.
+    private List<BookRecord> rankFuzzy(String query, boolean titles, boolean authors) {
+        if (titleWords == null) {
+            titleWords = new FuzzyIndex(book -> book.title);
+            authorWords = new FuzzyIndex(book -> book.author);
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (slots[slot] == null) continue;
+                BookRecord book = peek(slot);
+                titleWords.add(book);
+                authorWords.add(book);
+            }
+        }
+        List<String> keys = FuzzyIndex.keys(query);
+        if (keys.isEmpty()) return new ArrayList<>();
+        // Per query word: the postings of the near words and their distances
+        List<List<IdList>> postings = new ArrayList<>();
+        List<List<Integer>> distances = new ArrayList<>();
+        long[] sizes = new long[keys.size()];
+        for (int k = 0; k < keys.size(); k++) {
+            List<IdList> near = new ArrayList<>();
+            List<Integer> nearDistances = new ArrayList<>();
+            FuzzyIndex.Match collect = (ids, distance) -> {
+                near.add(ids);
+                nearDistances.add(distance);
+            };
+            int maxDistance = FuzzyIndex.maxDistance(keys.get(k));
+            if (titles) titleWords.search(keys.get(k), maxDistance, collect);
+            if (authors) authorWords.search(keys.get(k), maxDistance, collect);
+            if (near.isEmpty()) return new ArrayList<>();
+            for (IdList ids : near) sizes[k] += ids.size();
+            postings.add(near);
+            distances.add(nearDistances);
+        }
+        int first = 0;
+        for (int k = 1; k < sizes.length; k++) if (sizes[k] < sizes[first]) first = k;
+        Map<Long, Integer> scores = new HashMap<>();
+        for (int i = 0; i < postings.get(first).size(); i++) {
+            IdList ids = postings.get(first).get(i);
+            int distance = distances.get(first).get(i);
+            for (int j = 0; j < ids.size(); j++) scores.merge(ids.get(j), distance, Math::min);
+        }
+        for (int k = 0; k < keys.size() && !scores.isEmpty(); k++) {
+            if (k == first) continue;
+            List<IdList> near = postings.get(k);
+            List<Integer> nearDistances = distances.get(k);
+            for (Iterator<Map.Entry<Long, Integer>> it = scores.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Long, Integer> entry = it.next();
+                int best = Integer.MAX_VALUE;
+                for (int i = 0; i < near.size(); i++) {
+                    if (nearDistances.get(i) < best && near.get(i).find(entry.getKey(), 0) >= 0) best = nearDistances.get(i);
+                }
+                if (best == Integer.MAX_VALUE) it.remove();
+                else entry.setValue(entry.getValue() + best);
+            }
+        }
+        // Score in the high bits and slot in the low ones, so one sort ranks them
+        long[] ranked = new long[scores.size()];
+        int n = 0;
+        for (Map.Entry<Long, Integer> entry : scores.entrySet()) ranked[n++] = (long) entry.getValue() << 32 | slotOf(entry.getKey());
+        Arrays.sort(ranked);
+        List<BookRecord> results = new ArrayList<>(n);
+        for (long rank : ranked) results.add(load((int) rank));
+        return results;
+    }
+
+    // Slots of the indexed books of the given author entries
+    private int[] authorSlots(long[] entries) {
+        int count = 0;
+        for (long entry : entries) count += authorBooks[(int) entry].size();
+        int[] found = new int[count];
+        int n = 0;
+        for (long entry : entries) {
+            IdList ids = authorBooks[(int) entry];
+            for (int i = 0; i < ids.size(); i++) found[n++] = slotOf(ids.get(i));
+        }
+        return found;
+    }
+
+    private List<BookRecord> collect(long[] ids) {
+        int[] found = new int[ids.length];
+        int n = 0;
+        for (long id : ids) found[n++] = slotOf(id);
+        return inOrder(found, n);
+    }
+
+    // Books in the first n given slots, in display order and without repeats
+    private List<BookRecord> inOrder(int[] found, int n) {
+        Arrays.sort(found, 0, n);
+        List<BookRecord> results = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) if (i == 0 || found[i] != found[i - 1]) results.add(load(found[i]));
+        return results;
+    }
+
+    // Slot of the live book with the given id, or -1
+    private int slotOf(long id) {
+        int slot = slotById.get(id);
+        if (slot >= 0) return slot;
+        if (base == null) return -1;
+        int position = base.positionOf(id);
+        return position >= 0 && slots[position] != null ? position : -1;
+    }
+
+    // Book in a live slot, decoded from the mapped catalog and kept on first access
+    // unless the books are kept in columns. Keeping it is safe even in a shared slot:
+    // a snapshot reading the slot at the same time gets either UNLOADED and decodes
+    // the same book, or the decoded book itself.
+    private BookRecord load(int slot) {
+        if (columns == null && slots[slot] == UNLOADED) slots[slot] = base.get(slot);
+        return peek(slot);
+    }
+
+    // Puts the book in a slot, as an object or into the columns
+    private void store(int slot, BookRecord book) {
+        if (columns == null) {
+            set(slot, book);
+            return;
+        }
+        columns.set(slot, book);
+        if (slots[slot] != STORED) set(slot, STORED);
+    }
+
+    private BookColumns newColumns(int capacity) {
+        return storage == Storage.OBJECTS ? null : new BookColumns(capacity, storage == Storage.OFF_HEAP);
+    }
+
+    // Overwrites a slot, first copying the array if a snapshot still sees the slot
+    private void set(int slot, BookRecord book) {
+        if (slot < sharedSlots) {
+            slots = slots.clone();
+            sharedSlots = 0;
+        }
+        slots[slot] = book;
+    }
+
+    // Same as load() without keeping the decoded book, for full scans
+    private BookRecord peek(int slot) {
+        BookRecord book = slots[slot];
+        if (book == UNLOADED) return base.get(slot);
+        return book == STORED ? columns.get(slot, authorNames.names()) : book;
+    }
+
+    // The author's name goes into the author indexes with the first book of its entry
+    // and stays there; the entry's book list tells whether any book is left
+    private void indexAdd(BookRecord book) {
+        byTitle.add(normalize(book.title), book.id);
+        byContent.add(contentHash(book.title, book.author), book.id);
+        titleGrams.add(book.id, book.title);
+        int entry = book.authorId;
+        if (entry >= authorBooks.length) authorBooks = Arrays.copyOf(authorBooks, Math.max(entry + 1, authorBooks.length * 2));
+        if (authorBooks[entry] == null) {
+            authorBooks[entry] = new IdList();
+            byAuthor.add(normalize(book.author), entry);
+            authorGrams.add(entry, book.author);
+        }
+        authorBooks[entry].add(book.id);
+    }
+
+    private void indexRemove(BookRecord book) {
+        byTitle.remove(normalize(book.title), book.id);
+        byContent.remove(contentHash(book.title, book.author), book.id);
+        titleGrams.remove(book.id, book.title);
+        authorBooks[book.authorId].remove(book.id);
+    }
+
+    // Makes room for one more slot: drops tombstones if there are many, otherwise doubles the capacity
+    private void grow() {
+        if (size < slotCount / 2) compact();
+        else rebuild(toList(), slots.length * 2);
+    }
+
+    private void compact() {
+        rebuild(toList(), Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size)) * 2));
+    }
+
+    // Lays the books out in the given order without tombstones; O(n).
+    // Decodes the whole mapped catalog, which is no longer needed afterwards.
+    private void rebuild(List<BookRecord> live, int capacity) {
+        ensureIndexed();
+        base = null;
+        slots = new BookRecord[capacity];
+        sharedSlots = 0;
+        columns = newColumns(capacity);
+        slotCount = live.size();
+        size = live.size();
+        slotById.clear();
+        for (int i = 0; i < slotCount; i++) {
+            BookRecord book = live.get(i);
+            store(i, book);
+            slotById.put(book.id, i);
+        }
+        indexedSlots = slotCount;
+        buildTree(capacity);
+    }
+
+    // Fenwick tree for the first slotCount slots being live
+    private void buildTree(int capacity) {
+        tree = new int[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            if (i <= slotCount) tree[i]++;
+            int parent = i + (i & -i);
+            if (parent <= capacity) tree[parent] += tree[i];
+        }
+    }
+
+    private void treeAdd(int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    // Number of live slots before the given slot
+    private int prefix(int slot) {
+        int sum = 0;
+        for (int i = slot; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    // Slot holding the live book with the given 0-based rank
+    private int select(int rank) {
+        int pos = 0;
+        for (int bit = Integer.highestOneBit(tree.length - 1); bit > 0; bit >>= 1) {
+            int next = pos + bit;
+            if (next < tree.length && tree[next] <= rank) {
+                pos = next;
+                rank -= tree[next];
+            }
+        }
+        return pos;
+    }
+
+    // Immutable view of the books at one version, in display order. Its slots are never
+    // overwritten by the repository (see set()), so it is read without any lock.
+    static final class Snapshot implements Iterable<BookRecord> {
+        private final BookRecord[] slots;
+        private final int slotCount;
+        private final int size;
+        private final MappedCatalog base;
+        private final BookColumns columns;
+        private final long version;
+        private final long nextId;
+        private final String[] authors; // AuthorDictionary names, shared like the slots
+        private final int authorCount;
+
+        private Snapshot(BookRecord[] slots, int slotCount, int size, MappedCatalog base, BookColumns columns,
+                         long version, long nextId, String[] authors, int authorCount) {
+            this.slots = slots;
+            this.slotCount = slotCount;
+            this.size = size;
+            this.base = base;
+            this.columns = columns;
+            this.version = version;
+            this.nextId = nextId;
+            this.authors = authors;
+            this.authorCount = authorCount;
+        }
+
+        int size() {
+            return size;
+        }
+
+        // BookRepository.version() at the time the snapshot was taken
+        long version() {
+            return version;
+        }
+
+        // Id the next added book was going to get
+        long nextId() {
+            return nextId;
+        }
+
+        // Author dictionary entries at the time; every book's authorId is below this
+        int authorCount() {
+            return authorCount;
+        }
+
+        String author(int entry) {
+            if (entry < 0 || entry >= authorCount) throw new IndexOutOfBoundsException("Author entry: " + entry + ", count: " + authorCount);
+            return authors[entry];
+        }
+
+        @Override
+        public Iterator<BookRecord> iterator() {
+            return new Iterator<>() {
+                private int slot = nextLive(0);
+
+                @Override
+                public boolean hasNext() {
+                    return slot < slotCount;
+                }
+
+                @Override
+                public BookRecord next() {
+                    if (slot >= slotCount) throw new NoSuchElementException();
+                    BookRecord book = book(slot);
+                    slot = nextLive(slot + 1);
+                    return book;
+                }
+            };
+        }
+
+        private int nextLive(int slot) {
+            while (slot < slotCount && slots[slot] == null) slot++;
+            return slot;
+        }
+
+        // Book in the slot, or null for a tombstone; not kept when decoded
+        private BookRecord book(int slot) {
+            BookRecord book = slots[slot];
+            if (book == UNLOADED) return base.get(slot);
+            return book == STORED ? columns.get(slot, authors) : book;
+        }
+    }
+
+    // Matches of a substring search in one snapshot. Goes through the candidate slots, or
+    // through every slot, only as far as the pages asked for need; books in columns are
+    // matched on their bytes and only decoded when they match. A cursor read from the
+    // first match to the last hands the results to the repository's query cache.
+    private static final class QueryCursor implements BookCursor {
+        private final BookRepository owner;
+        private final Field field;
+        private final Snapshot snapshot;
+        private final String needle;
+        private final boolean titles;
+        private final boolean authors;
+        private final int[] found; // Sorted candidate slots, or null to check every slot
+        private final BookColumns.Matcher matcher;
+        private byte[] authorMatches; // Per author entry: 0 not checked yet, 1 matches, 2 does not
+        private int next; // Next index into found, or next slot
+        private int ahead = -1; // Match found by hasNext() and not returned yet
+        private BookRecord decoded; // Book of the last mapped slot checked, so it is decoded once
+        private int decodedSlot = -1;
+        private List<BookRecord> read; // Every match returned so far, for the cache; null once that cannot be
+        private boolean ended; // Every slot has been checked
+
+        QueryCursor(BookRepository owner, Field field, Snapshot snapshot, String needle, int[] found, int afterSlot) {
+            this.owner = owner;
+            this.field = field;
+            this.snapshot = snapshot;
+            this.needle = needle;
+            titles = field != Field.AUTHOR;
+            authors = field != Field.TITLE;
+            this.found = found;
+            if (afterSlot < 0) read = new ArrayList<>();
+            matcher = titles && snapshot.columns != null ? snapshot.columns.matcher(needle) : null;
+            if (found == null) next = afterSlot + 1;
+            else while (next < found.length && found[next] <= afterSlot) next++;
+        }
+
+        @Override
+        public List<BookRecord> next(int limit) {
+            CatalogEvent timing = Metrics.SEARCH_PAGE.start();
+            List<BookRecord> page = new ArrayList<>(Math.min(limit, 256));
+            while (page.size() < limit) {
+                int slot = advance();
+                if (slot < 0) break;
+                page.add(slot == decodedSlot ? decoded : snapshot.book(slot));
+            }
+            if (read != null) {
+                read.addAll(page);
+                if (read.size() > QueryCache.MAX_RESULTS) read = null;
+            }
+            cacheIfComplete();
+            Metrics.SEARCH_PAGE.stop(timing, needle, page.size());
+            Metrics.SEARCH_BOOKS.add(page.size());
+            return page;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (ahead < 0) ahead = find();
+            cacheIfComplete();
+            return ahead >= 0;
+        }
+
+        @Override
+        public int skip(int count) {
+            int skipped = 0;
+            while (skipped < count && advance() >= 0) skipped++;
+            if (skipped > 0) read = null;
+            return skipped;
+        }
+
+        private void cacheIfComplete() {
+            if (!ended || ahead >= 0 || read == null) return;
+            owner.remember(field, needle, snapshot.version, read);
+            read = null;
+        }
+
+        private int advance() {
+            int slot = ahead >= 0 ? ahead : find();
+            ahead = -1;
+            return slot;
+        }
+
+        // Slot of the next match, or -1 at the end or if the thread is interrupted
+        private int find() {
+            int end = found == null ? snapshot.slotCount : found.length;
+            for (; next < end; next++) {
+                int slot;
+                if (found == null) {
+                    if ((next & 4095) == 0 && Thread.currentThread().isInterrupted()) return -1;
+                    slot = next;
+                } else {
+                    slot = found[next];
+                    if (next > 0 && slot == found[next - 1]) continue;
+                }
+                if (matches(slot)) {
+                    next++;
+                    return slot;
+                }
+            }
+            ended = true;
+            return -1;
+        }
+
+        private boolean matches(int slot) {
+            BookRecord book = snapshot.slots[slot];
+            if (book == null) return false;
+            if (book == STORED) return (authors && authorMatches(snapshot.columns.author(slot))) || (titles && matcher.matches(slot));
+            if (book == UNLOADED) {
+                book = snapshot.base.get(slot);
+                decoded = book;
+                decodedSlot = slot;
+            }
+            return (authors && authorMatches(book.authorId)) || (titles && NGramIndex.fold(book.title).contains(needle));
+        }
+
+        private boolean authorMatches(int entry) {
+            if (authorMatches == null) authorMatches = new byte[snapshot.authorCount];
+            if (authorMatches[entry] == 0) authorMatches[entry] = NGramIndex.fold(snapshot.authors[entry]).contains(needle) ? (byte) 1 : 2;
+            return authorMatches[entry] == 1;
+        }
+    }
+}
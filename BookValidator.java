@@ -0,0 +1,62 @@
+// Checks titles and authors against the characters the library accepts, shared by both
+// front-ends and the importer. A lookup table replaces String.matches, which compiled
+// a regular expression on every call; checking allocates nothing.
+//
+// Titles: Latin and Russian letters, digits, whitespace and ? ! + : ; № " ' . , / -
+// Authors: Latin and Russian letters, whitespace and - .
+// (Whitespace is what \s matched: space, \t, \n, \u000B, \f, \r.)
+final class BookValidator {
+    enum Problem {
+        NONE,
+        EMPTY,
+        INVALID_CHARACTER
+    }
+
+    private static final byte TITLE = 1;
+    private static final byte AUTHOR = 2;
+    // Flags for chars below the end of the Cyrillic block; № is checked separately
+    private static final byte[] ALLOWED = new byte[0x460];
+
+    static {
+        allow("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ", TITLE | AUTHOR);
+        allow(" \t\n\u000B\f\r-.", TITLE | AUTHOR);
+        allow("0123456789?!+:;\"',/", TITLE);
+        for (char c = 'А'; c <= 'я'; c++) ALLOWED[c] |= TITLE | AUTHOR;
+        ALLOWED['ё'] |= TITLE | AUTHOR;
+        ALLOWED['Ё'] |= TITLE | AUTHOR;
+    }
+
+    private BookValidator() {
+    }
+
+    private static void allow(String chars, int flags) {
+        for (int i = 0; i < chars.length(); i++) ALLOWED[chars.charAt(i)] |= (byte) flags;
+    }
+
+    static Problem checkTitle(CharSequence title) {
+        return check(title, TITLE);
+    }
+
+    static Problem checkAuthor(CharSequence author) {
+        return check(author, AUTHOR);
+    }
+
+    static boolean isValidTitle(CharSequence title) {
+        return check(title, TITLE) == Problem.NONE;
+    }
+
+    static boolean isValidAuthor(CharSequence author) {
+        return check(author, AUTHOR) == Problem.NONE;
+    }
+
+    private static Problem check(CharSequence value, byte field) {
+        int length = value.length();
+        if (length == 0) return Problem.EMPTY;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            boolean allowed = c < ALLOWED.length ? (ALLOWED[c] & field) != 0 : c == '№' && field == TITLE;
+            if (!allowed) return Problem.INVALID_CHARACTER;
+        }
+        return Problem.NONE;
+    }
+}
@@ -0,0 +1,328 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+// Non-interactive command mode of LibraryManager, for scripts and scheduled jobs.
+//
+// Commands come one per line, fields separated by tabs, with tab, line breaks and
+// backslash inside a field written as \t, \n, \r and \\ (as in the TSV export).
+// Blank lines and lines starting with # are ignored. Books are referred to by id,
+// which does not change when other books are added or deleted.
+//
+//   add      TITLE AUTHOR      ok ... ID
+//   edit     ID TITLE AUTHOR   ok ... ID          (an empty field keeps the old value)
+//   delete   ID                ok ... ID
+//   get      ID                ok ... 1, then the book
+//   search   QUERY             ok ... COUNT, then the books   (title or author)
+//   search-title QUERY, search-author QUERY
+//   fuzzy    QUERY             ok ... COUNT, then the books   (typos allowed, best first)
+//   fuzzy-title QUERY, fuzzy-author QUERY
+//   find-title TITLE           ok ... COUNT, then the books   (whole title, ignoring case and
+//                              extra spaces; through a hash index, in display order)
+//   find-author AUTHOR         same for the author
+//   list                       ok ... COUNT, then all books
+//   count                      ok ... COUNT
+//   cache                      ok ... HITS MISSES ENTRIES BOOKS   (search result cache)
+//   duplicates                 ok ... GROUPS BOOKS, then per group "group COUNT" and its books
+//   import   FILE [POLICY]     ok ... IMPORTED SKIPPED DUPLICATES   ("title, author" lines;
+//                              POLICY skip, merge or keep, see BookRepository.Duplicates)
+//   export   FILE              ok ... COUNT                   (format by extension)
+//   save                       ok ...                          (waits for the journal)
+//
+// Every command gets one result line, in the same tab-separated form:
+//   ok    LINE COMMAND [VALUE...]
+//   error LINE COMMAND CODE [DETAIL]
+// followed for book listings by one "book ID TITLE AUTHOR" line per book. LINE is
+// the command's line number (1 for a command given as program arguments). A failed
+// command does not stop the ones after it; an unexpected failure inside one is reported
+// with the code "internal". Output is buffered and flushed at the end.
+final class CatalogBatch {
+    private final BookRepository books;
+    private final CatalogStore store;
+    private final CatalogExporter exporter;
+    private final Writer out;
+    private long errors;
+
+    CatalogBatch(BookRepository books, CatalogStore store, CatalogExporter exporter, Writer out) {
+        this.books = books;
+        this.store = store;
+        this.exporter = exporter;
+        this.out = out;
+    }
+
+    // Failed commands so far
+    long errors() {
+        return errors;
+    }
+
+    // Runs every command of the reader
+    void run(BufferedReader commands) throws IOException {
+        String line;
+        long number = 0;
+        try {
+            while ((line = commands.readLine()) != null) {
+                number++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+                execute(number, split(line));
+            }
+        } finally {
+            out.flush(); // The results so far, also when the job is cut short
+        }
+    }
+
+    // Runs one command given as separate fields, e.g. program arguments
+    void execute(long line, String[] fields) throws IOException {
+        String command = fields[0].trim();
+        try {
+            switch (command) {
+                case "add": add(line, fields); break;
+                case "edit": edit(line, fields); break;
+                case "delete": delete(line, fields); break;
+                case "get": get(line, fields); break;
+                case "search": search(line, fields, books::search); break;
+                case "search-title": search(line, fields, books::searchTitle); break;
+                case "search-author": search(line, fields, books::searchAuthor); break;
+                case "fuzzy": search(line, fields, books::searchFuzzy); break;
+                case "fuzzy-title": search(line, fields, books::searchTitleFuzzy); break;
+                case "fuzzy-author": search(line, fields, books::searchAuthorFuzzy); break;
+                case "find-title": search(line, fields, books::findByTitle); break;
+                case "find-author": search(line, fields, books::findByAuthor); break;
+                case "list": list(line, fields); break;
+                case "count":
+                    arguments(fields, 0);
+                    ok(line, command, Integer.toString(books.size()));
+                    break;
+                case "cache":
+                    arguments(fields, 0);
+                    QueryCache.Stats stats = books.cacheStats();
+                    ok(line, command, Long.toString(stats.hits), Long.toString(stats.misses), Integer.toString(stats.entries), Integer.toString(stats.books));
+                    break;
+                case "duplicates": duplicates(line, fields); break;
+                case "import": importFile(line, fields); break;
+                case "export":
+                    arguments(fields, 1);
+                    ok(line, command, Long.toString(exporter.export(Path.of(fields[1]), books)));
+                    break;
+                case "save":
+                    arguments(fields, 0);
+                    store.flush();
+                    ok(line, command);
+                    break;
+                default: error(line, command, "unknown-command");
+            }
+        } catch (Failure e) {
+            error(line, command, e.code, e.detail);
+        } catch (IOException e) {
+            error(line, command, "io", e.getMessage());
+        } catch (RuntimeException e) {
+            // A bad path, a damaged book in the catalog file...: this command fails, the job goes on
+            error(line, command, "internal", e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private void add(long line, String[] fields) throws IOException, Failure {
+        arguments(fields, 2);
+        String title = title(fields[1], false);
+        String author = author(fields[2], false);
+        ok(line, "add", Long.toString(books.add(title, author).id));
+    }
+
+    private void edit(long line, String[] fields) throws IOException, Failure {
+        arguments(fields, 3);
+        BookRecord book = book(fields[1]);
+        String title = title(fields[2], true);
+        String author = author(fields[3], true);
+        books.update(book.id, title.isEmpty() ? book.title : title, author.isEmpty() ? book.author : author);
+        ok(line, "edit", Long.toString(book.id));
+    }
+
+    private void delete(long line, String[] fields) throws IOException, Failure {
+        arguments(fields, 1);
+        BookRecord book = book(fields[1]);
+        books.remove(book.id);
+        ok(line, "delete", Long.toString(book.id));
+    }
+
+    private void get(long line, String[] fields) throws IOException, Failure {
+        arguments(fields, 1);
+        BookRecord book = book(fields[1]);
+        ok(line, "get", "1");
+        write(book);
+    }
+
+    private void search(long line, String[] fields, Function<String, List<BookRecord>> search) throws IOException, Failure {
+        arguments(fields, 1);
+        String query = fields[1].trim();
+        if (query.isEmpty()) throw new Failure("empty-query", null);
+        List<BookRecord> results = search.apply(query);
+        ok(line, fields[0].trim(), Integer.toString(results.size()));
+        for (BookRecord book : results) write(book);
+    }
+
+    private void list(long line, String[] fields) throws IOException, Failure {
+        arguments(fields, 0);
+        BookRepository.Snapshot snapshot = books.snapshot();
+        ok(line, "list", Integer.toString(snapshot.size()));
+        for (BookRecord book : snapshot) write(book);
+    }
+
+    private void duplicates(long line, String[] fields) throws IOException, Failure {
+        arguments(fields, 0);
+        List<List<BookRecord>> groups = books.duplicates();
+        long count = 0;
+        for (List<BookRecord> group : groups) count += group.size();
+        ok(line, "duplicates", Integer.toString(groups.size()), Long.toString(count));
+        for (List<BookRecord> group : groups) {
+            out.write("group\t" + group.size() + "\n");
+            for (BookRecord book : group) write(book);
+        }
+    }
+
+    private void importFile(long line, String[] fields) throws IOException, Failure {
+        if (fields.length != 2 && fields.length != 3) throw new Failure("usage", "expected 1 or 2 arguments, got " + (fields.length - 1));
+        BookRepository.Duplicates policy = BookRepository.DEFAULT_DUPLICATES;
+        if (fields.length == 3) {
+            try {
+                policy = BookRepository.Duplicates.valueOf(fields[2].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new Failure("bad-policy", fields[2]);
+            }
+        }
+        CatalogImporter.Result result = CatalogImporter.importFile(Path.of(fields[1]), books, policy, null);
+        ok(line, "import", Long.toString(result.imported), Long.toString(result.skipped), Long.toString(result.duplicates));
+    }
+
+    private static void arguments(String[] fields, int count) throws Failure {
+        if (fields.length != count + 1) throw new Failure("usage", "expected " + count + " argument(s), got " + (fields.length - 1));
+    }
+
+    private BookRecord book(String field) throws Failure {
+        long id;
+        try {
+            id = Long.parseLong(field.trim());
+        } catch (NumberFormatException e) {
+            throw new Failure("bad-id", field);
+        }
+        BookRecord book = books.get(id);
+        if (book == null) throw new Failure("not-found", Long.toString(id));
+        return book;
+    }
+
+    // Trimmed title; an empty one only passes where it means "unchanged"
+    private static String title(String field, boolean emptyAllowed) throws Failure {
+        String title = field.trim();
+        if (title.isEmpty() && emptyAllowed) return title;
+        BookValidator.Problem problem = BookValidator.checkTitle(title);
+        if (problem == BookValidator.Problem.EMPTY) throw new Failure("empty-title", null);
+        if (problem == BookValidator.Problem.INVALID_CHARACTER) throw new Failure("invalid-title", title);
+        return title;
+    }
+
+    private static String author(String field, boolean emptyAllowed) throws Failure {
+        String author = field.trim();
+        if (author.isEmpty() && emptyAllowed) return author;
+        BookValidator.Problem problem = BookValidator.checkAuthor(author);
+        if (problem == BookValidator.Problem.EMPTY) throw new Failure("empty-author", null);
+        if (problem == BookValidator.Problem.INVALID_CHARACTER) throw new Failure("invalid-author", author);
+        return author;
+    }
+
+    private void ok(long line, String command, String... values) throws IOException {
+        out.write("ok\t");
+        out.write(Long.toString(line));
+        out.write('\t');
+        out.write(command);
+        for (String value : values) {
+            out.write('\t');
+            field(value);
+        }
+        out.write('\n');
+    }
+
+    private void error(long line, String command, String code, String... detail) throws IOException {
+        errors++;
+        out.write("error\t");
+        out.write(Long.toString(line));
+        out.write('\t');
+        field(command);
+        out.write('\t');
+        out.write(code);
+        for (String value : detail) {
+            if (value == null) continue;
+            out.write('\t');
+            field(value);
+        }
+        out.write('\n');
+    }
+
+    private void write(BookRecord book) throws IOException {
+        out.write("book\t");
+        out.write(Long.toString(book.id));
+        out.write('\t');
+        field(book.title);
+        out.write('\t');
+        field(book.author);
+        out.write('\n');
+    }
+
+    // Writes the value with tab, line breaks and backslash escaped
+    private void field(String value) throws IOException {
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            char escape = c == '\t' ? 't' : c == '\n' ? 'n' : c == '\r' ? 'r' : c == '\\' ? '\\' : 0;
+            if (escape == 0) continue;
+            out.write(value, from, i - from);
+            out.write('\\');
+            out.write(escape);
+            from = i + 1;
+        }
+        out.write(value, from, value.length() - from);
+    }
+
+    // Tab-separated fields with the escapes undone; an unknown escape is kept as it is
+    static String[] split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                switch (next) {
+                    case 't': field.append('\t'); break;
+                    case 'n': field.append('\n'); break;
+                    case 'r': field.append('\r'); break;
+                    case '\\': field.append('\\'); break;
+                    default: field.append(c).append(next);
+                }
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    // A command that cannot be carried out, reported as an error line
+    private static final class Failure extends Exception {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        final String code;
+        final String detail; // null if there is nothing to add
+
+        Failure(String code, String detail) {
+            super(code, null, false, false);
+            this.code = code;
+            this.detail = detail;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight Recorder event of one timed operation (see Metrics.Timer). Only operations of
+// 10 ms or more are recorded by default, so a recording left running in production keeps
+// the slow searches and saves and little else; lower the threshold for a full trace:
+//
+//   java -XX:StartFlightRecording:filename=library.jfr,+library.CatalogOperation#threshold=0ms ...
+//
+// The event also carries the start time of the Metrics timing, so that one object per
+// operation does both.
+@Name("library.CatalogOperation")
+@Label("Catalog Operation")
+@Category("Library")
+@Description("A catalog operation or I/O path timed by the library's metrics")
+@StackTrace(false)
+@Threshold("10 ms")
+final class CatalogEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Detail")
+    @Description("Search query or file name")
+    String detail;
+
+    @Label("Books")
+    @Description("Books read, written or found")
+    long books;
+
+    transient long startNanos; // For Metrics, not recorded
+}
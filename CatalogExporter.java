@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+// Writes books to a text file in one of several formats (see Format), UTF-8 encoded.
+// Characters are encoded straight into a direct buffer that is drained to the file
+// whenever it fills up, so no string is built per row and memory does not grow with
+// the catalog. The buffer is kept between exports, so exports from several threads take turns.
+final class CatalogExporter {
+    static final int BUFFER_SIZE = 256 << 10;
+
+    enum Format {
+        // "title, author" as written by earlier versions; a field is quoted when it
+        // contains a comma or a quote or starts or ends with a space (see CatalogImporter)
+        CSV {
+            @Override
+            void writeRow(BookRecord book, CatalogExporter out) throws IOException {
+                out.csvField(book.title);
+                out.putAscii(',');
+                out.putAscii(' ');
+                out.csvField(book.author);
+                out.putAscii('\n');
+            }
+        },
+        // "title<TAB>author", with tab, line breaks and backslash written as \t, \n, \r and \\
+        TSV {
+            @Override
+            void writeRow(BookRecord book, CatalogExporter out) throws IOException {
+                out.tsvField(book.title);
+                out.putAscii('\t');
+                out.tsvField(book.author);
+                out.putAscii('\n');
+            }
+        },
+        // One JSON object per line: {"id":1,"title":"...","author":"..."}
+        JSON_LINES {
+            @Override
+            void writeRow(BookRecord book, CatalogExporter out) throws IOException {
+                out.putAscii("{\"id\":");
+                out.putLong(book.id);
+                out.putAscii(",\"title\":");
+                out.jsonString(book.title);
+                out.putAscii(",\"author\":");
+                out.jsonString(book.author);
+                out.putAscii("}\n");
+            }
+        };
+
+        abstract void writeRow(BookRecord book, CatalogExporter out) throws IOException;
+
+        // Format for a file name: .tsv, .jsonl/.json or anything else for CSV; a trailing .gz is ignored
+        static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".gz")) name = name.substring(0, name.length() - 3);
+            if (name.endsWith(".tsv")) return TSV;
+            if (name.endsWith(".jsonl") || name.endsWith(".json")) return JSON_LINES;
+            return CSV;
+        }
+    }
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private WritableByteChannel channel;
+
+    // Writes the books in the format chosen by the file name, gzip-compressed when it ends
+    // with .gz; returns the number of books written
+    long export(Path file, Iterable<BookRecord> books) throws IOException {
+        return export(file, books, Format.forFile(file), file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz"));
+    }
+
+    synchronized long export(Path file, Iterable<BookRecord> books, Format format, boolean gzip) throws IOException {
+        CatalogEvent timing = Metrics.EXPORT.start();
+        long count = 0;
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            GZIPOutputStream compressed = gzip ? new GZIPOutputStream(Channels.newOutputStream(fileChannel), BUFFER_SIZE) : null;
+            channel = gzip ? Channels.newChannel(compressed) : fileChannel;
+            buffer.clear();
+            try {
+                for (BookRecord book : books) {
+                    format.writeRow(book, this);
+                    count++;
+                }
+                drain();
+                if (compressed != null) compressed.finish();
+            } finally {
+                channel = null;
+                if (compressed != null) closeQuietly(compressed);
+            }
+        }
+        Metrics.EXPORT.stop(timing, file.toString(), count);
+        return count;
+    }
+
+    private static void closeQuietly(OutputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+            // The export already failed or succeeded; closing the file channel follows
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // Makes room for a few more bytes (one encoded character or a number)
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) drain();
+    }
+
+    private void putAscii(char c) throws IOException {
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    private void putAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) putAscii(text.charAt(i));
+    }
+
+    private void putLong(long value) throws IOException {
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        // Digits are written in reverse and then swapped in place
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte b = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, b);
+        }
+    }
+
+    // UTF-8 encodes text[from, to); an unpaired surrogate becomes '?'
+    private void putText(String text, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            ensure(4);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+                        .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private void csvField(String value) throws IOException {
+        boolean quote = !value.isEmpty() && (value.charAt(0) <= ' ' || value.charAt(value.length() - 1) <= ' ');
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            putText(value, 0, value.length());
+            return;
+        }
+        putAscii('"');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != '"') continue;
+            putText(value, from, i + 1);
+            putAscii('"');
+            from = i + 1;
+        }
+        putText(value, from, value.length());
+        putAscii('"');
+    }
+
+    private void tsvField(String value) throws IOException {
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            char escape = c == '\t' ? 't' : c == '\n' ? 'n' : c == '\r' ? 'r' : c == '\\' ? '\\' : 0;
+            if (escape == 0) continue;
+            putText(value, from, i);
+            putAscii('\\');
+            putAscii(escape);
+            from = i + 1;
+        }
+        putText(value, from, value.length());
+    }
+
+    private void jsonString(String value) throws IOException {
+        putAscii('"');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') continue;
+            putText(value, from, i);
+            putAscii('\\');
+            switch (c) {
+                case '"': putAscii('"'); break;
+                case '\\': putAscii('\\'); break;
+                case '\n': putAscii('n'); break;
+                case '\r': putAscii('r'); break;
+                case '\t': putAscii('t'); break;
+                default:
+                    putAscii("u00");
+                    putAscii(Character.forDigit(c >> 4, 16));
+                    putAscii(Character.forDigit(c & 0xF, 16));
+            }
+            from = i + 1;
+        }
+        putText(value, from, value.length());
+        putAscii('"');
+    }
+}
@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Binary catalog snapshot, replacing the ObjectOutputStream .ser files.
+//
+// Layout of version 3 (all numbers big-endian, "varint" = unsigned LEB128):
+//   header:   magic "LIBC", int version, int book count, long next id, int author count,
+//             int flags, long table offset, long id index offset (0 = none),
+//             long sequence of the last journal record included (see CatalogJournal)
+//   authors:  author count x (varint byte length, UTF-8 bytes)
+//   books:    book count x (varint author index, varint byte length, UTF-8 title)
+//   table:    book count x (long id, long offset of the book record), in display order
+//   id index: book count x int display position, ordered by id; only written when
+//             the table itself is not ordered by id (FLAG_IDS_ASCENDING unset)
+//   trailer:  int CRC32 of everything before it
+// Every author name is stored once and books refer to it by index. The author table is
+// the AuthorDictionary of the saved repository, so a book's index is its authorId; it
+// may hold names no book refers to any more.
+// The fixed-size table lets MappedCatalog decode any single book without reading the others.
+//
+// Version 2 files (same without the journal sequence) and version 1 files (header up to
+// the author count, then per book a varint zig-zag id delta before the author index,
+// no table) are still read.
+final class CatalogFile {
+    static final int MAGIC = 0x4C494243; // "LIBC"
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 52;
+    static final int HEADER_SIZE_V2 = 44;
+    static final int TABLE_ENTRY_SIZE = 16;
+    static final int FLAG_IDS_ASCENDING = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Startup mode: map the catalog and decode books lazily (default) or read it all up front
+    static final boolean MAPPED_STARTUP = Boolean.parseBoolean(System.getProperty("library.mapped", "true"));
+    // Whether a mapped startup checks the whole file against its checksum, which reads
+    // every page of it; without it each book is checked as it is decoded
+    static final boolean VERIFY_MAPPED = Boolean.getBoolean("library.verify");
+    // Whether a mapped startup fills the indexes on a background thread; without it the
+    // first lookup that needs them does, and the books no one looks at stay undecoded
+    static final boolean INDEX_MAPPED = Boolean.getBoolean("library.preindex");
+    private static volatile boolean pendingReported; // The note about write() leaving a .new file was printed
+    // Books put into the repository at a time when a catalog is read eagerly
+    static final int LOAD_CHUNK = 4096;
+    static final Progress NO_PROGRESS = (loaded, total) -> {
+    };
+
+    // Called on the loading thread after each chunk of books is in the repository
+    interface Progress {
+        void update(long loaded, long total);
+    }
+
+    private CatalogFile() {
+    }
+
+    // Writes all books to the file; the old file is replaced only after the new one is complete
+    static void write(Path file, BookRepository books) throws IOException {
+        BookRepository.Snapshot snapshot = books.snapshot();
+        write(file, snapshot, 0);
+    }
+
+    // Writes the books of the snapshot (iterated twice) as a catalog file that includes
+    // the journal records up to the given sequence
+    static void write(Path file, BookRepository.Snapshot books, long sequence) throws IOException {
+        CatalogEvent timing = Metrics.FILE_WRITE.start();
+        // First pass: section sizes, so the header can be written first
+        int authorCount = books.authorCount();
+        long[] ids = new long[1024];
+        int count = 0;
+        long authorBytes = 0;
+        long recordBytes = 0;
+        boolean ascending = true;
+        for (int i = 0; i < authorCount; i++) authorBytes += stringSize(books.author(i));
+        for (BookRecord book : books) {
+            recordBytes += varLongSize(book.authorId) + stringSize(book.title);
+            if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+            if (count > 0 && ids[count - 1] >= book.id) ascending = false;
+            ids[count++] = book.id;
+        }
+        long tableOffset = HEADER_SIZE + authorBytes + recordBytes;
+        long idIndexOffset = ascending ? 0 : tableOffset + (long) count * TABLE_ENTRY_SIZE;
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.ensure(HEADER_SIZE);
+            out.buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putLong(books.nextId()).putInt(authorCount)
+                    .putInt(ascending ? FLAG_IDS_ASCENDING : 0).putLong(tableOffset).putLong(idIndexOffset).putLong(sequence);
+            for (int i = 0; i < authorCount; i++) out.putString(books.author(i));
+            long[] offsets = new long[count];
+            int written = 0;
+            for (BookRecord book : books) {
+                if (written == count || book.id != ids[written]) throw new IOException("Catalog changed while it was being saved");
+                offsets[written++] = out.position();
+                out.putVarLong(book.authorId);
+                out.putString(book.title);
+            }
+            if (written != count || out.position() != tableOffset) throw new IOException("Catalog changed while it was being saved");
+            for (int i = 0; i < count; i++) {
+                out.ensure(TABLE_ENTRY_SIZE);
+                out.buffer.putLong(ids[i]).putLong(offsets[i]);
+            }
+            if (!ascending) {
+                Integer[] byId = new Integer[count];
+                for (int i = 0; i < count; i++) byId[i] = i;
+                long[] order = ids;
+                Arrays.sort(byId, (a, b) -> Long.compare(order[a], order[b]));
+                for (int position : byId) {
+                    out.ensure(4);
+                    out.buffer.putInt(position);
+                }
+            }
+            out.finish();
+            channel.force(false);
+        }
+        // On POSIX systems a MappedCatalog over the replaced file keeps seeing the old contents.
+        // Windows refuses to replace a file while it is mapped, as it is when a repository is
+        // attached to it: the new file then waits as <file>.new until installPending() on the
+        // next start, before anything maps the file.
+        Path pending = pendingFile(file);
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException e) {
+            Files.move(temp, pending, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (!pendingReported) {
+                pendingReported = true;
+                System.err.println("Catalog " + file + " is in use (" + e.getMessage() + "); the new version is kept as "
+                        + pending.getFileName() + " and replaces it on the next start");
+            }
+            Metrics.FILE_WRITE.stop(timing, pending.toString(), count);
+            return;
+        }
+        Files.deleteIfExists(pending); // Older than the file just written
+        Metrics.FILE_WRITE.stop(timing, file.toString(), count);
+    }
+
+    // Where write() leaves a new version of the file it could not replace
+    static Path pendingFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".new");
+    }
+
+    // Replaces the file with a version write() left next to it, if there is one; called
+    // on startup before the file is opened
+    static void installPending(Path file) throws IOException {
+        Path pending = pendingFile(file);
+        if (Files.exists(pending)) Files.move(pending, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Same without progress reports
+    static long read(Path file, BookRepository books) throws IOException {
+        return read(file, books, NO_PROGRESS);
+    }
+
+    // Replaces the repository contents with the books from the file, decoding all of them
+    // and verifying the checksum; returns the journal sequence of the snapshot. Once the
+    // checksum is verified, the books go in LOAD_CHUNK at a time as they are decoded, so
+    // readers see the catalog grow while it loads.
+    static long read(Path file, BookRepository books, Progress progress) throws IOException {
+        CatalogEvent timing = Metrics.FILE_READ.start();
+        try {
+            if (version(file) == 1) return readVersion1(file, books, progress);
+            MappedCatalog catalog = MappedCatalog.open(file);
+            if (!catalog.verifyChecksum()) throw new IOException("Catalog file checksum mismatch");
+            books.clear();
+            List<BookRecord> chunk = new ArrayList<>(LOAD_CHUNK);
+            for (int i = 0; i < catalog.count; i++) {
+                chunk.add(catalog.get(i));
+                if (chunk.size() < LOAD_CHUNK && i < catalog.count - 1) continue;
+                books.restoreAll(chunk);
+                chunk.clear();
+                progress.update(i + 1, catalog.count);
+            }
+            books.reserveIds(catalog.nextId);
+            return catalog.sequence;
+        } finally {
+            Metrics.FILE_READ.stop(timing, file.toString(), books.size());
+        }
+    }
+
+    // Makes the repository show the books of the file without decoding them up front
+    // (see BookRepository.attach); version 1 files are read eagerly.
+    // Returns the journal sequence of the snapshot.
+    static long open(Path file, BookRepository books) throws IOException {
+        CatalogEvent timing = Metrics.FILE_OPEN.start();
+        try {
+            if (version(file) == 1) return readVersion1(file, books, NO_PROGRESS);
+            MappedCatalog catalog = MappedCatalog.open(file);
+            books.attach(catalog);
+            return catalog.sequence;
+        } finally {
+            Metrics.FILE_OPEN.stop(timing, file.toString(), books.size());
+        }
+    }
+
+    // Startup load used by both front-ends. In mapped mode only the header and the author
+    // table are read, so the time and heap it takes hardly grow with the catalog: books are
+    // decoded when shown, searched or changed, and the indexes are built by the first
+    // lookup that needs them (see VERIFY_MAPPED and INDEX_MAPPED). A damaged header fails
+    // the same way as with read(), a damaged book when it is decoded.
+    static long load(Path file, BookRepository books) throws IOException {
+        return load(file, books, NO_PROGRESS);
+    }
+
+    // Same, reporting the books loaded so far; attaching reports all of them at once
+    static long load(Path file, BookRepository books, Progress progress) throws IOException {
+        if (!MAPPED_STARTUP || version(file) == 1) return read(file, books, progress);
+        MappedCatalog catalog = MappedCatalog.open(file);
+        if (VERIFY_MAPPED && !catalog.verifyChecksum()) throw new IOException("Catalog file checksum mismatch");
+        books.attach(catalog);
+        progress.update(catalog.count, catalog.count);
+        if (INDEX_MAPPED) {
+            Thread indexer = new Thread(books::buildIndexes, "library-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+        return catalog.sequence;
+    }
+
+    private static int version(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (header.hasRemaining()) if (channel.read(header) < 0) throw new IOException("Not a library catalog file: " + file);
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Not a library catalog file: " + file);
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported catalog file version: " + version);
+            return version;
+        }
+    }
+
+    private static long readVersion1(Path file, BookRepository books, Progress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            in.ensure(24);
+            in.buffer.getInt(); // Magic and version were checked by version()
+            in.buffer.getInt();
+            int count = in.buffer.getInt();
+            long nextId = in.buffer.getLong();
+            int authorCount = in.buffer.getInt();
+            if (count < 0 || authorCount < 0) throw new IOException("Corrupted catalog file: " + file);
+            String[] authors = new String[authorCount];
+            for (int i = 0; i < authorCount; i++) authors[i] = in.getString();
+            List<BookRecord> loaded = new ArrayList<>(count);
+            long id = 0;
+            for (int i = 0; i < count; i++) {
+                id += unZigZag(in.getVarLong());
+                long author = in.getVarLong();
+                if (author >= authorCount) throw new IOException("Corrupted catalog file: " + file);
+                loaded.add(new BookRecord(id, in.getString(), authors[(int) author]));
+            }
+            in.verifyChecksum();
+            // Only touch the repository once the whole file checked out
+            books.clear();
+            for (int from = 0; from < count; from += LOAD_CHUNK) {
+                int to = Math.min(from + LOAD_CHUNK, count);
+                books.restoreAll(loaded.subList(from, to));
+                progress.update(to, count);
+            }
+            books.reserveIds(nextId);
+            return 0;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted catalog file: " + e.getMessage(), e);
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Bytes taken by a length-prefixed UTF-8 string
+    static long stringSize(String value) {
+        int bytes = utf8Length(value);
+        return varLongSize(bytes) + bytes;
+    }
+
+    static int utf8Length(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) bytes++;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) bytes++; // getBytes writes '?' for an unpaired surrogate
+            else bytes += 3;
+        }
+        return bytes;
+    }
+
+    // Buffered channel writer that keeps a running CRC32
+    private static final class Output {
+        final FileChannel channel;
+        final CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long flushed;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return;
+            flush();
+            if (buffer.capacity() < bytes) buffer = ByteBuffer.allocateDirect(bytes);
+        }
+
+        void putVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarLong(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            flushed += buffer.remaining();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    // Buffered channel reader over the payload (everything but the trailer), keeping a running CRC32
+    private static final class Input {
+        final FileChannel channel;
+        final CRC32 crc = new CRC32();
+        final long payloadSize;
+        long payloadRead;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            payloadSize = channel.size() - 4;
+            buffer.flip();
+        }
+
+        // Makes at least the given number of bytes available in the buffer
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return;
+            if (bytes > payloadSize - payloadRead + buffer.remaining()) throw new IOException("Unexpected end of catalog file");
+            if (buffer.capacity() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(bytes);
+                bigger.put(buffer);
+                buffer = bigger;
+            } else buffer.compact();
+            while (buffer.position() < bytes) {
+                int limit = (int) Math.min(buffer.capacity(), buffer.position() + payloadSize - payloadRead);
+                buffer.limit(limit);
+                int start = buffer.position();
+                if (channel.read(buffer) < 0) throw new IOException("Unexpected end of catalog file");
+                crc.update(buffer.duplicate().flip().position(start));
+                payloadRead += buffer.position() - start;
+            }
+            buffer.flip();
+        }
+
+        long getVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                ensure(1);
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Corrupted catalog file: bad number");
+        }
+
+        String getString() throws IOException {
+            long length = getVarLong();
+            if (length > Integer.MAX_VALUE) throw new IOException("Corrupted catalog file: bad string length");
+            ensure((int) length);
+            byte[] bytes = new byte[(int) length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void verifyChecksum() throws IOException {
+            if (buffer.hasRemaining() || payloadRead != payloadSize) throw new IOException("Corrupted catalog file: trailing data");
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            while (trailer.hasRemaining()) if (channel.read(trailer) < 0) throw new IOException("Unexpected end of catalog file");
+            if (trailer.flip().getInt() != (int) crc.getValue()) throw new IOException("Catalog file checksum mismatch");
+        }
+    }
+}
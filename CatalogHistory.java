@@ -0,0 +1,182 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Multi-level undo and redo of the changes made to a repository (see CatalogListener).
+// Books are immutable BookRecords, so a step only keeps the records it replaced and the
+// ones it put in: a retained version costs memory in proportion to what changed, and the
+// catalog itself is never copied. Undo and redo make the reverse or the same changes
+// through the repository, so a CatalogStore journals them like any other edit, and a
+// removed book is put back in its place (see BookRepository.restore).
+//
+// Each change is a step of its own, unless the thread making it opened a step with
+// begin(): then everything it changes until end() is undone together, e.g. both fields
+// of an edit or all books of an import. A new change drops the steps that were undone.
+// Clearing or sorting the catalog drops the whole history, as neither is kept.
+final class CatalogHistory implements CatalogListener {
+    // Steps kept for undo; the oldest ones are dropped first
+    static final int DEPTH = Integer.getInteger("library.undo", 100);
+
+    private final BookRepository books;
+    // All guarded by the repository lock, which the listener calls hold
+    private final Deque<Step> undo = new ArrayDeque<>();
+    private final Deque<Step> redo = new ArrayDeque<>();
+    private final Map<Thread, Step> open = new HashMap<>();
+    private boolean applying; // Undo or redo is making its changes
+
+    // Records the changes made to the repository from now on
+    CatalogHistory(BookRepository books) {
+        this.books = books;
+        books.addListener(this);
+    }
+
+    void begin(String label) {
+        synchronized (books) {
+            open.put(Thread.currentThread(), new Step(label));
+        }
+    }
+
+    void end() {
+        synchronized (books) {
+            Step step = open.remove(Thread.currentThread());
+            if (step != null && !step.changes.isEmpty()) push(step);
+        }
+    }
+
+    // Reverts the latest step; returns its label, or null if there is nothing to undo
+    String undo() {
+        synchronized (books) {
+            Step step = undo.pollLast();
+            if (step == null) return null;
+            applying = true;
+            try {
+                for (int i = step.changes.size() - 1; i >= 0; i--) revert(step.changes.get(i));
+            } finally {
+                applying = false;
+            }
+            redo.addLast(step);
+            return step.label;
+        }
+    }
+
+    // Makes the latest undone step again; returns its label, or null if there is none
+    String redo() {
+        synchronized (books) {
+            Step step = redo.pollLast();
+            if (step == null) return null;
+            applying = true;
+            try {
+                for (Change change : step.changes) apply(change);
+            } finally {
+                applying = false;
+            }
+            undo.addLast(step);
+            return step.label;
+        }
+    }
+
+    // Label of the step undo() would revert, or null
+    String nextUndo() {
+        synchronized (books) {
+            return undo.isEmpty() ? null : undo.peekLast().label;
+        }
+    }
+
+    // Label of the step redo() would make again, or null
+    String nextRedo() {
+        synchronized (books) {
+            return redo.isEmpty() ? null : redo.peekLast().label;
+        }
+    }
+
+    // A book that was changed again since is put back as the step left it; one that is
+    // gone or back already is skipped
+    private void revert(Change change) {
+        if (change.after == null) {
+            if (books.get(change.before.id) == null) books.restore(change.before.id, change.before.title, change.before.author, change.followingId);
+        } else if (change.before == null) books.remove(change.after.id);
+        else books.update(change.before.id, change.before.title, change.before.author);
+    }
+
+    private void apply(Change change) {
+        if (change.before == null) {
+            if (books.get(change.after.id) == null) books.restore(change.after.id, change.after.title, change.after.author, change.followingId);
+        } else if (change.after == null) books.remove(change.before.id);
+        else books.update(change.after.id, change.after.title, change.after.author);
+    }
+
+    private void record(BookRecord before, BookRecord after, long followingId) {
+        if (applying) return;
+        redo.clear();
+        Change change = new Change(before, after, followingId);
+        Step step = open.get(Thread.currentThread());
+        if (step != null) {
+            step.changes.add(change);
+            return;
+        }
+        step = new Step(before == null ? "добавление книги" : after == null ? "удаление книги" : "изменение книги");
+        step.changes.add(change);
+        push(step);
+    }
+
+    private void push(Step step) {
+        undo.addLast(step);
+        while (undo.size() > DEPTH) undo.pollFirst();
+    }
+
+    private void forget() {
+        undo.clear();
+        redo.clear();
+        for (Step step : open.values()) step.changes.clear();
+    }
+
+    @Override
+    public void bookAdded(BookRecord book, long followingId) {
+        record(null, book, followingId);
+    }
+
+    @Override
+    public void bookUpdated(BookRecord old, BookRecord book) {
+        record(old, book, 0);
+    }
+
+    @Override
+    public void bookRemoved(BookRecord book, long followingId) {
+        record(book, null, followingId);
+    }
+
+    @Override
+    public void catalogReordered() {
+        if (!applying) forget();
+    }
+
+    @Override
+    public void catalogCleared() {
+        if (!applying) forget();
+    }
+
+    // One change: an addition has no before, a removal no after
+    private static final class Change {
+        final BookRecord before;
+        final BookRecord after;
+        final long followingId;
+
+        Change(BookRecord before, BookRecord after, long followingId) {
+            this.before = before;
+            this.after = after;
+            this.followingId = followingId;
+        }
+    }
+
+    private static final class Step {
+        final String label;
+        final List<Change> changes = new ArrayList<>();
+
+        Step(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// Bulk import of "title, author" text files (UTF-8, one book per line).
+//
+// The file is read in CHUNK_SIZE pieces cut at line ends. While one chunk is parsed
+// on the fork-join pool the next one is read, and the books of the previous chunk
+// are added to the repository in one batch, so memory stays at two chunks plus one
+// parsed batch however large the file is.
+//
+// A field may be quoted ("Title, with comma", author), with "" standing for a quote.
+// An unquoted line with more than one comma is split at the last one, since author
+// names do not contain commas. Blank lines are ignored; lines without a title or an
+// author, or with characters BookValidator rejects, are skipped and counted.
+// Books already in the catalog, or earlier in the file, are handled by the duplicates
+// policy (see BookRepository.Duplicates) and counted as well.
+final class CatalogImporter {
+    static final int CHUNK_SIZE = 8 << 20;
+    // Parse tasks are not split below this many bytes
+    private static final int SEGMENT_SIZE = 256 << 10;
+
+    // Called on the importing thread after each batch
+    interface Progress {
+        void update(long bytesDone, long totalBytes, long imported);
+    }
+
+    static final class Result {
+        final long imported;
+        final long skipped; // Malformed lines
+        final long duplicates; // Left out or merged by the duplicates policy
+
+        Result(long imported, long skipped, long duplicates) {
+            this.imported = imported;
+            this.skipped = skipped;
+            this.duplicates = duplicates;
+        }
+    }
+
+    private CatalogImporter() {
+    }
+
+    // Same with the default duplicates policy
+    static Result importFile(Path file, BookRepository books, Progress progress) throws IOException {
+        return importFile(file, books, BookRepository.DEFAULT_DUPLICATES, progress);
+    }
+
+    // Adds the books of the file to the repository. Stops with ClosedByInterruptException
+    // when the importing thread is interrupted; books of the batches done so far stay added.
+    static Result importFile(Path file, BookRepository books, BookRepository.Duplicates policy, Progress progress) throws IOException {
+        CatalogEvent timing = Metrics.IMPORT.start();
+        long imported = 0;
+        long skipped = 0;
+        long duplicates = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long total = channel.size();
+            byte[][] buffers = {new byte[(int) Math.min(CHUNK_SIZE, Math.max(total, 1))], null};
+            int current = 0;
+            int carried = 0; // Bytes of an unfinished line at the start of the current buffer
+            long done = 0;
+            // Skipped before the first line, also when the first chunk takes more than one read
+            int bom = startsWithBom(channel) ? 3 : 0;
+            boolean first = true; // No chunk parsed yet
+            ForkJoinTask<List<Batch>> parsing = null;
+            long parsingBytes = 0;
+            while (true) {
+                byte[] buffer = buffers[current];
+                int filled = carried;
+                boolean end = false;
+                while (filled < buffer.length) {
+                    int read = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+                    if (read < 0) {
+                        end = true;
+                        break;
+                    }
+                    filled += read;
+                }
+                int start = first ? bom : 0;
+                int cut = end ? filled : lastLineEnd(buffer, start, filled);
+                if (cut < 0) {
+                    // A single line longer than the buffer
+                    buffers[current] = Arrays.copyOf(buffer, buffer.length * 2);
+                    carried = filled;
+                    continue;
+                }
+                ForkJoinTask<List<Batch>> next = ForkJoinPool.commonPool().submit(new Parse(buffer, start, cut));
+                first = false;
+                // Move the unfinished line to the other buffer, which the previous parse is done with
+                int other = 1 - current;
+                if (parsing != null) {
+                    List<Batch> batches = parsing.join();
+                    for (Batch batch : batches) {
+                        int left = books.addAll(batch.titles, batch.authors, batch.count, policy);
+                        imported += batch.count - left;
+                        skipped += batch.skipped;
+                        duplicates += left;
+                    }
+                    done += parsingBytes;
+                    if (progress != null) progress.update(done, total, imported);
+                }
+                if (buffers[other] == null || buffers[other].length < buffer.length) buffers[other] = new byte[buffer.length];
+                carried = filled - cut;
+                System.arraycopy(buffer, cut, buffers[other], 0, carried);
+                parsing = next;
+                parsingBytes = cut;
+                current = other;
+                if (end) break;
+            }
+            for (Batch batch : parsing.join()) {
+                int left = books.addAll(batch.titles, batch.authors, batch.count, policy);
+                imported += batch.count - left;
+                skipped += batch.skipped;
+                duplicates += left;
+            }
+            if (progress != null) progress.update(total, total, imported);
+        }
+        Metrics.IMPORT.stop(timing, file.toString(), imported);
+        return new Result(imported, skipped, duplicates);
+    }
+
+    // Whether the file starts with the UTF-8 byte order mark; leaves the position alone
+    private static boolean startsWithBom(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(3);
+        int read = 0;
+        while (head.hasRemaining() && read >= 0) read = channel.read(head, head.position());
+        return head.position() == 3 && head.get(0) == (byte) 0xEF && head.get(1) == (byte) 0xBB && head.get(2) == (byte) 0xBF;
+    }
+
+    // Position just after the last '\n' in [from, to), or -1 if there is none
+    private static int lastLineEnd(byte[] buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) if (buffer[i] == '\n') return i + 1;
+        return -1;
+    }
+
+    // Parsed books of one segment of a chunk
+    private static final class Batch {
+        String[] titles = new String[256];
+        String[] authors = new String[256];
+        int count;
+        int skipped;
+
+        void add(String title, String author) {
+            if (count == titles.length) {
+                titles = Arrays.copyOf(titles, count * 2);
+                authors = Arrays.copyOf(authors, count * 2);
+            }
+            titles[count] = title;
+            authors[count++] = author;
+        }
+    }
+
+    // Parses the complete lines in [from, to), splitting large ranges at line ends
+    private static final class Parse extends RecursiveTask<List<Batch>> {
+        private static final long serialVersionUID = 1L;
+        private final byte[] buffer;
+        private final int from;
+        private final int to;
+
+        Parse(byte[] buffer, int from, int to) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Batch> compute() {
+            if (to - from > SEGMENT_SIZE) {
+                int middle = lastLineEnd(buffer, from, from + (to - from) / 2);
+                if (middle > from) {
+                    Parse left = new Parse(buffer, from, middle);
+                    Parse right = new Parse(buffer, middle, to);
+                    right.fork();
+                    List<Batch> batches = new ArrayList<>(left.compute());
+                    batches.addAll(right.join());
+                    return batches;
+                }
+            }
+            Batch batch = new Batch();
+            Tokenizer tokenizer = new Tokenizer(buffer);
+            int line = from;
+            while (line < to) {
+                int end = line;
+                while (end < to && buffer[end] != '\n') end++;
+                tokenizer.parse(line, end, batch);
+                line = end + 1;
+            }
+            return List.of(batch);
+        }
+    }
+
+    // Splits one line into title and author; works on the UTF-8 bytes, since the
+    // separators are ASCII, and decodes only the two fields
+    private static final class Tokenizer {
+        private final byte[] buffer;
+        private byte[] unquoted = new byte[256];
+
+        Tokenizer(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        void parse(int from, int to, Batch batch) {
+            while (from < to && isSpace(buffer[from])) from++;
+            while (to > from && isSpace(buffer[to - 1])) to--; // Also drops the '\r' of "\r\n"
+            if (from == to) return; // Blank line
+            int authorStart;
+            String title;
+            if (buffer[from] == '"') {
+                int close = closingQuote(from + 1, to);
+                int comma = close + 1;
+                while (comma < to && isSpace(buffer[comma])) comma++;
+                if (close < 0 || comma == to || buffer[comma] != ',') { // Unterminated, or text after the quote
+                    batch.skipped++;
+                    return;
+                }
+                authorStart = comma + 1;
+                title = unquote(from + 1, close);
+            } else {
+                int comma = to - 1;
+                while (comma >= from && buffer[comma] != ',') comma--;
+                if (comma < from) {
+                    batch.skipped++;
+                    return;
+                }
+                int titleEnd = comma;
+                while (titleEnd > from && isSpace(buffer[titleEnd - 1])) titleEnd--;
+                authorStart = comma + 1;
+                title = new String(buffer, from, titleEnd - from, StandardCharsets.UTF_8);
+            }
+            while (authorStart < to && isSpace(buffer[authorStart])) authorStart++;
+            String author;
+            if (authorStart < to && buffer[authorStart] == '"') {
+                if (closingQuote(authorStart + 1, to) != to - 1) {
+                    batch.skipped++;
+                    return;
+                }
+                author = unquote(authorStart + 1, to - 1);
+            } else {
+                author = new String(buffer, authorStart, to - authorStart, StandardCharsets.UTF_8);
+            }
+            if (title.isBlank() || author.isBlank() || !BookValidator.isValidTitle(title) || !BookValidator.isValidAuthor(author)) {
+                batch.skipped++;
+                return;
+            }
+            batch.add(title, author);
+        }
+
+        // Position of the quote ending a quoted field that starts at from, or -1
+        private int closingQuote(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer[i] != '"') continue;
+                if (i + 1 < to && buffer[i + 1] == '"') i++;
+                else return i;
+            }
+            return -1;
+        }
+
+        // Decodes a quoted field's contents, turning "" into "
+        private String unquote(int from, int to) {
+            if (unquoted.length < to - from) unquoted = new byte[to - from];
+            int n = 0;
+            for (int i = from; i < to; i++) {
+                unquoted[n++] = buffer[i];
+                if (buffer[i] == '"') i++;
+            }
+            return new String(unquoted, 0, n, StandardCharsets.UTF_8);
+        }
+
+        private static boolean isSpace(byte b) {
+            return b >= 0 && b <= ' ';
+        }
+    }
+}
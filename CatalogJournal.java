@@ -0,0 +1,400 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Append-only log of catalog changes made since the last snapshot (see CatalogStore).
+//
+// Layout (all numbers big-endian, "varint" = unsigned LEB128):
+//   header:  magic "LIBJ", int version
+//   records: int body length, body, int CRC32 of the body
+//   body:    long sequence, byte operation, long book id, and for ADD and UPDATE
+//            the title and the author (varint byte length, UTF-8 bytes); an ADD that
+//            puts a book back in front of another one ends with the other one's id
+// Sequences grow by one per record and continue across snapshots, so replay can skip
+// records a snapshot already contains. A record cut off by a crash fails its length
+// or checksum check and is dropped, together with anything after it.
+//
+// Appends only copy the record into a buffer. A writer thread writes whatever has
+// accumulated and forces it to disk in one go (group commit), so a burst of edits
+// costs a single fsync; flush() waits until everything appended so far is durable.
+final class CatalogJournal implements Closeable {
+    static final int MAGIC = 0x4C49424A; // "LIBJ"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final byte ADD = 1;
+    static final byte UPDATE = 2;
+    static final byte REMOVE = 3;
+    static final byte CLEAR = 4;
+    // Longer records can only come from a damaged file
+    private static final int MAX_RECORD = 1 << 24;
+
+    private final Path file;
+    private final Path old; // Records handed over to a snapshot that is still being written
+    // Held while the channel is written or replaced; always taken before the journal's own lock
+    private final Object io = new Object();
+    private final Thread writer;
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private long sequence; // Last appended record
+    private long durable; // Last record forced to disk
+    private long length; // Bytes written to the file
+    private long sessionStart; // Journal size when opened, or just the header after a rotation
+    private boolean rotated; // Some of the session's records went to a snapshot
+    private boolean closed;
+
+    private CatalogJournal(Path file, FileChannel channel, long sequence) throws IOException {
+        this.file = file;
+        this.old = oldFile(file);
+        this.channel = channel;
+        this.sequence = sequence;
+        this.durable = sequence;
+        this.length = channel.size();
+        this.sessionStart = length;
+        writer = new Thread(this::writeLoop, "library-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Journal of records that are already part of a snapshot being written
+    static Path oldFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".old");
+    }
+
+    // Opens the journal for appending after replay(); records continue after the given sequence
+    static CatalogJournal open(Path file, long sequence) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) writeHeader(channel);
+            channel.position(channel.size());
+            return new CatalogJournal(file, channel, sequence);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Applies the records after the given sequence to the repository and returns the last
+    // sequence seen. A damaged tail is cut off so appending can continue behind the last
+    // good record. Applying is forgiving: adding a known id updates the book, and updating
+    // or removing a missing one is skipped, so replaying a record twice does no harm.
+    static long replay(Path file, BookRepository books, long after) throws IOException {
+        if (!Files.exists(file)) return after;
+        long last = after;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            if (header.hasRemaining()) {
+                // Crashed before the header was complete
+                channel.truncate(0);
+                return after;
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) throw new IOException("Not a library journal file: " + file);
+            long position = HEADER_SIZE;
+            ByteBuffer length = ByteBuffer.allocate(4);
+            CRC32 crc = new CRC32();
+            while (position + 4 <= size) {
+                length.clear();
+                channel.read(length, position);
+                int bodyLength = length.getInt(0);
+                if (bodyLength < 17 || bodyLength > MAX_RECORD || position + 8 + bodyLength > size) break;
+                ByteBuffer record = ByteBuffer.allocate(bodyLength + 4);
+                while (record.hasRemaining()) channel.read(record, position + 4 + record.position());
+                crc.reset();
+                crc.update(record.array(), 0, bodyLength);
+                if (record.getInt(bodyLength) != (int) crc.getValue()) break;
+                record.flip().limit(bodyLength);
+                long sequence = record.getLong();
+                if (sequence > last) {
+                    apply(record, books);
+                    last = sequence;
+                }
+                position += 8 + bodyLength;
+            }
+            if (position < size) {
+                System.err.println("Journal " + file + ": dropped " + (size - position) + " damaged bytes at the end");
+                channel.truncate(position);
+                channel.force(false);
+            }
+        }
+        return last;
+    }
+
+    private static void apply(ByteBuffer record, BookRepository books) throws IOException {
+        byte operation = record.get();
+        long id = record.getLong();
+        try {
+            switch (operation) {
+                case ADD:
+                case UPDATE: {
+                    String title = getString(record);
+                    String author = getString(record);
+                    long following = record.remaining() >= 8 ? record.getLong() : 0;
+                    if (books.get(id) != null) books.update(id, title, author);
+                    else if (operation == ADD) books.restore(id, title, author, following);
+                    break;
+                }
+                case REMOVE: books.remove(id); break;
+                case CLEAR: books.clear(); break;
+                default: throw new IOException("Unknown journal operation: " + operation);
+            }
+        } catch (IllegalStateException e) { // Lengths inside a record whose checksum matched
+            throw new IOException("Corrupted journal record: " + e.getMessage(), e);
+        }
+    }
+
+    // followingId: the book it was put in front of, 0 when it was added at the end
+    void added(BookRecord book, long followingId) {
+        append(ADD, book.id, book.title, book.author, followingId);
+    }
+
+    void updated(BookRecord book) {
+        append(UPDATE, book.id, book.title, book.author, 0);
+    }
+
+    void removed(BookRecord book) {
+        append(REMOVE, book.id, null, null, 0);
+    }
+
+    void cleared() {
+        append(CLEAR, 0, null, null, 0);
+    }
+
+    // Number of bytes in the journal, including records not written yet
+    synchronized long size() {
+        return length + pending.position();
+    }
+
+    // Last appended sequence
+    synchronized long sequence() {
+        return sequence;
+    }
+
+    private synchronized void append(byte operation, long id, String title, String author, long following) {
+        if (closed) throw new IllegalStateException("Journal is closed");
+        byte[] titleBytes = title == null ? null : title.getBytes(StandardCharsets.UTF_8);
+        byte[] authorBytes = author == null ? null : author.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 17;
+        if (titleBytes != null) bodyLength += CatalogFile.varLongSize(titleBytes.length) + titleBytes.length;
+        if (authorBytes != null) bodyLength += CatalogFile.varLongSize(authorBytes.length) + authorBytes.length;
+        if (following != 0) bodyLength += 8;
+        if (pending.remaining() < bodyLength + 8) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bodyLength + 8));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        int start = pending.position();
+        pending.putInt(bodyLength).putLong(++sequence).put(operation).putLong(id);
+        if (titleBytes != null) putBytes(pending, titleBytes);
+        if (authorBytes != null) putBytes(pending, authorBytes);
+        if (following != 0) pending.putLong(following);
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), start + 4, bodyLength);
+        pending.putInt((int) crc.getValue());
+        Metrics.JOURNAL_RECORDS.add(1);
+        notifyAll();
+    }
+
+    // Blocks until every record appended so far is on disk
+    void flush() throws IOException {
+        long target;
+        synchronized (this) {
+            target = sequence;
+            notifyAll();
+        }
+        synchronized (io) {
+            synchronized (this) {
+                if (durable >= target) return;
+            }
+            writePending();
+        }
+    }
+
+    // Hands the current records over to a snapshot: they are moved to the .old file
+    // (appended if an earlier snapshot never finished) and a new journal is started.
+    // Returns the last sequence the snapshot has to include. Only the cut-over runs under
+    // the given lock (the repository's), together with atCut, which takes the snapshot;
+    // the writes and file moves come after it, while records appended meanwhile wait in
+    // memory for the new journal.
+    long rotate(Object lock, Runnable atCut) throws IOException {
+        synchronized (io) {
+            long cut;
+            ByteBuffer handover;
+            synchronized (lock) {
+                atCut.run();
+                synchronized (this) {
+                    cut = sequence;
+                    handover = pending;
+                    pending = ByteBuffer.allocate(handover.capacity());
+                    length = HEADER_SIZE; // The size of the journal the new records go to
+                }
+            }
+            write(handover, cut);
+            channel.close();
+            if (Files.exists(old)) {
+                try (FileChannel from = FileChannel.open(file, StandardOpenOption.READ);
+                     FileChannel to = FileChannel.open(old, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    long position = HEADER_SIZE;
+                    while (position < from.size()) position += from.transferTo(position, from.size() - position, to);
+                    to.force(false);
+                }
+                Files.delete(file);
+            } else {
+                Files.move(file, old, StandardCopyOption.ATOMIC_MOVE);
+            }
+            FileChannel fresh = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writeHeader(fresh);
+            fresh.position(HEADER_SIZE);
+            synchronized (this) {
+                channel = fresh;
+                sessionStart = HEADER_SIZE;
+                rotated = true;
+            }
+            return cut;
+        }
+    }
+
+    // Called once the snapshot covering the .old records is safely written
+    void snapshotWritten() throws IOException {
+        Files.deleteIfExists(old);
+    }
+
+    // Drops the records appended since the journal was opened. Those already handed over
+    // to a snapshot stay; then only the later ones are dropped and this returns false.
+    boolean discardSession() throws IOException {
+        synchronized (io) {
+            synchronized (this) {
+                pending.clear();
+                durable = sequence;
+                length = sessionStart;
+                channel.truncate(sessionStart);
+                channel.force(false);
+                return !rotated;
+            }
+        }
+    }
+
+    // Writes what is left and stops the writer thread
+    @Override
+    public void close() throws IOException {
+        synchronized (io) {
+            synchronized (this) {
+                if (closed) return;
+            }
+            writePending();
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            channel.close();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            synchronized (this) {
+                while (!closed && pending.position() == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+            }
+            try {
+                synchronized (io) {
+                    writePending();
+                }
+            } catch (IOException e) {
+                System.err.println("Journal " + file + ": " + e.getMessage());
+                try {
+                    Thread.sleep(1000); // Retry later; flush() reports the failure meanwhile
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Writes and forces the accumulated records; the caller holds the io lock
+    private void writePending() throws IOException {
+        ByteBuffer batch;
+        long batchSequence;
+        synchronized (this) {
+            if (pending.position() == 0) return;
+            batch = pending;
+            batchSequence = sequence;
+            pending = ByteBuffer.allocate(batch.capacity());
+        }
+        write(batch, batchSequence);
+        synchronized (this) {
+            length += batch.limit();
+        }
+    }
+
+    // Writes and forces records taken out of pending, the last of them batchSequence; on
+    // failure they go back in front of the ones appended since. The caller holds the io lock.
+    private void write(ByteBuffer batch, long batchSequence) throws IOException {
+        if (batch.position() == 0) return;
+        batch.flip();
+        CatalogEvent timing = Metrics.JOURNAL_WRITE.start();
+        try {
+            while (batch.hasRemaining()) channel.write(batch);
+            channel.force(false);
+            Metrics.JOURNAL_WRITE.stop(timing, file.toString(), 0);
+        } catch (IOException e) {
+            synchronized (this) {
+                // Put the batch back in front of what was appended meanwhile
+                batch.rewind();
+                ByteBuffer merged = ByteBuffer.allocate(batch.remaining() + pending.capacity());
+                pending.flip();
+                merged.put(batch).put(pending);
+                pending = merged;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            durable = batchSequence;
+        }
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) channel.write(header, header.position());
+        channel.force(false);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        long value = bytes.length;
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer record) {
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift >= 35 || !record.hasRemaining()) throw new IllegalStateException("bad string length");
+            byte b = record.get();
+            length |= (long) (b & 0x7F) << shift;
+            if (b >= 0) break;
+        }
+        if (length > record.remaining()) throw new IllegalStateException("bad string length");
+        byte[] bytes = new byte[(int) length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+// Receives every change made to a BookRepository. Calls happen while the repository
+// lock is held, in the order the changes were made, so implementations must be quick.
+// The followingId of an addition or removal is the id of the book right after it in
+// display order, or 0 if it is the last one, so that it can be put back in its place.
+interface CatalogListener {
+    void bookAdded(BookRecord book, long followingId);
+
+    void bookUpdated(BookRecord old, BookRecord book);
+
+    void bookRemoved(BookRecord book, long followingId);
+
+    // The books were reordered (sort)
+    void catalogReordered();
+
+    void catalogCleared();
+}
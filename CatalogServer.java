@@ -0,0 +1,347 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// HTTP access to the catalog for other programs on the same machine (LibraryManager --serve).
+// Listens on the loopback interface only. Responses are JSON; request parameters come in
+// the query string or, for POST and PUT, as an application/x-www-form-urlencoded body.
+//
+//   GET    /books?offset=0&limit=20&order=added|title|author   {"total":N,"offset":0,"books":[...]}
+//   POST   /books          title, author                       201, the new book
+//   GET    /books/ID                                           the book
+//   PUT    /books/ID       title and/or author                 the changed book
+//   DELETE /books/ID                                           the deleted book
+//   GET    /search?q=...&field=all|title|author&offset=0&limit=20
+//                                          {"offset":0,"more":true,"next":ID,"books":[...]}
+//          &after=ID: the page after that book, with ID the "next" of the previous page;
+//          unlike offset, not thrown off by books added or removed meanwhile
+//          &fuzzy=true: typos allowed, best matches first (see BookRepository.searchFuzzy);
+//          pages by offset only
+//   GET    /metrics                                            timers, counters and gauges (see Metrics.json)
+//
+// A search reads only as many matches as its page needs (see BookCursor), so it does not
+// report how many there are in all; "more" tells whether there is a next page and "next",
+// present only then and not for fuzzy results, is the id to continue after.
+//
+// A book is {"id":1,"title":"...","author":"..."}; an error is {"error":"code"} with
+// status 400, 404 or 405. Changes go through the repository, so a CatalogStore listening
+// to it journals them as usual. Each request runs on its own virtual thread where the JDK
+// has them (21 and later) and on a fixed pool otherwise: requests are short and mostly
+// lock-free reads (see BookRepository.Snapshot), so a pool the size of a few CPUs keeps
+// up and the waiting connections queue in the server.
+final class CatalogServer implements Closeable {
+    static final int DEFAULT_PORT = 8080;
+    static final int DEFAULT_LIMIT = 20;
+    static final int MAX_LIMIT = 1000;
+    private static final int BACKLOG = 4096;
+    private static final int MAX_BODY = 64 << 10;
+
+    static {
+        // Settings of the JDK server, unless given on the command line. It writes the headers
+        // and the body separately, so with Nagle's algorithm on the body waits for the
+        // client's delayed ACK, about 40 ms per request. And it closes keep-alive
+        // connections beyond 200 idle ones, which makes busy clients reconnect.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) System.setProperty("sun.net.httpserver.maxIdleConnections", "65536");
+    }
+
+    private final BookRepository books;
+    private final HttpServer server;
+    private final ExecutorService executor = requestExecutor();
+
+    CatalogServer(BookRepository books, int port) throws IOException {
+        this.books = books;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.createContext("/books", exchange -> handle(exchange, this::books));
+        server.createContext("/search", exchange -> handle(exchange, this::search));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+        server.setExecutor(executor);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    // Port the server listens on, e.g. the one picked for port 0
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2), runnable -> {
+                Thread thread = new Thread(runnable, "library-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private interface Handler {
+        // Returns the status and fills in the JSON body
+        int handle(HttpExchange exchange, StringBuilder json) throws IOException, Failure;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        CatalogEvent timing = Metrics.HTTP.start();
+        try (exchange) {
+            StringBuilder json = new StringBuilder(256);
+            int status;
+            try {
+                status = handler.handle(exchange, json);
+            } catch (Failure e) {
+                json.setLength(0);
+                json.append("{\"error\":");
+                appendString(json, e.getMessage());
+                json.append('}');
+                status = e.status;
+            } catch (RuntimeException e) {
+                json.setLength(0);
+                json.append("{\"error\":\"internal\"}");
+                status = 500;
+            }
+            byte[] body = json.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        Metrics.HTTP.stop(timing, exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath(), 0);
+    }
+
+    private int books(HttpExchange exchange, StringBuilder json) throws IOException, Failure {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/books") || path.equals("/books/")) {
+            if (method.equals("GET")) return list(parameters(exchange.getRequestURI().getRawQuery()), json);
+            if (!method.equals("POST")) throw new Failure(405, "method-not-allowed");
+            Map<String, String> form = form(exchange);
+            BookRecord book = books.add(title(form.get("title"), false), author(form.get("author"), false));
+            appendBook(json, book);
+            return 201;
+        }
+        long id = id(path.substring("/books/".length()));
+        BookRecord book;
+        switch (method) {
+            case "GET":
+                book = books.get(id);
+                break;
+            case "PUT":
+                Map<String, String> form = form(exchange);
+                String title = title(form.get("title"), true);
+                String author = author(form.get("author"), true);
+                BookRecord old = books.get(id);
+                book = old == null ? null : books.update(id, title.isEmpty() ? old.title : title, author.isEmpty() ? old.author : author);
+                break;
+            case "DELETE":
+                book = books.remove(id);
+                break;
+            default: throw new Failure(405, "method-not-allowed");
+        }
+        if (book == null) throw new Failure(404, "not-found");
+        appendBook(json, book);
+        return 200;
+    }
+
+    private int list(Map<String, String> query, StringBuilder json) throws Failure {
+        int offset = number(query.get("offset"), 0, Integer.MAX_VALUE);
+        int limit = number(query.get("limit"), DEFAULT_LIMIT, MAX_LIMIT);
+        BookRepository.Order order;
+        try {
+            order = BookRepository.Order.valueOf(query.getOrDefault("order", "added").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new Failure(400, "bad-order");
+        }
+        int total;
+        List<BookRecord> page;
+        synchronized (books) { // The total of the catalog the page is taken from
+            total = books.size();
+            page = books.page(order, offset, limit);
+        }
+        json.append("{\"total\":").append(total).append(",\"offset\":").append(offset).append(",\"books\":");
+        appendBooks(json, page, page.size());
+        json.append('}');
+        return 200;
+    }
+
+    private int search(HttpExchange exchange, StringBuilder json) throws Failure {
+        if (!exchange.getRequestMethod().equals("GET")) throw new Failure(405, "method-not-allowed");
+        Map<String, String> query = parameters(exchange.getRequestURI().getRawQuery());
+        String q = query.getOrDefault("q", "").trim();
+        if (q.isEmpty()) throw new Failure(400, "empty-query");
+        int offset = number(query.get("offset"), 0, Integer.MAX_VALUE);
+        int limit = number(query.get("limit"), DEFAULT_LIMIT, MAX_LIMIT);
+        boolean fuzzy = Boolean.parseBoolean(query.get("fuzzy"));
+        String after = query.get("after");
+        BookRepository.Field field;
+        try {
+            field = BookRepository.Field.valueOf(query.getOrDefault("field", "all").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new Failure(400, "bad-field");
+        }
+        BookCursor cursor;
+        if (fuzzy) {
+            if (after != null) throw new Failure(400, "bad-after");
+            switch (field) {
+                case TITLE: cursor = BookCursor.of(books.searchTitleFuzzy(q)); break;
+                case AUTHOR: cursor = BookCursor.of(books.searchAuthorFuzzy(q)); break;
+                default: cursor = BookCursor.of(books.searchFuzzy(q)); break;
+            }
+        } else if (after != null) {
+            try {
+                cursor = books.cursor(q, field, Long.parseLong(after));
+            } catch (NumberFormatException | NoSuchElementException e) {
+                throw new Failure(400, "bad-after");
+            }
+        } else {
+            cursor = books.cursor(q, field);
+        }
+        cursor.skip(offset);
+        List<BookRecord> page = cursor.next(limit);
+        boolean more = cursor.hasNext();
+        json.append("{\"offset\":").append(offset).append(",\"more\":").append(more);
+        if (more && !fuzzy && !page.isEmpty()) json.append(",\"next\":").append(page.get(page.size() - 1).id);
+        json.append(",\"books\":");
+        appendBooks(json, page, page.size());
+        json.append('}');
+        return 200;
+    }
+
+    private int metrics(HttpExchange exchange, StringBuilder json) throws Failure {
+        if (!exchange.getRequestMethod().equals("GET")) throw new Failure(405, "method-not-allowed");
+        json.append(Metrics.json());
+        return 200;
+    }
+
+    private static Map<String, String> form(HttpExchange exchange) throws IOException, Failure {
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+        if (body.length > MAX_BODY) throw new Failure(400, "body-too-large");
+        return parameters(new String(body, StandardCharsets.UTF_8));
+    }
+
+    // Decoded name=value pairs of a query string or form body; the first of repeated names wins
+    private static Map<String, String> parameters(String encoded) throws Failure {
+        Map<String, String> parameters = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) return parameters;
+        try {
+            for (String pair : encoded.split("&")) {
+                int equals = pair.indexOf('=');
+                String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+                String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+                parameters.putIfAbsent(name, value);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new Failure(400, "bad-encoding");
+        }
+        return parameters;
+    }
+
+    private static int number(String value, int defaultValue, int max) throws Failure {
+        if (value == null || value.isEmpty()) return defaultValue;
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 0) return Math.min(number, max);
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new Failure(400, "bad-number");
+    }
+
+    private static long id(String value) throws Failure {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new Failure(404, "not-found");
+        }
+    }
+
+    // Trimmed title; an empty or missing one only passes where it means "unchanged"
+    private static String title(String value, boolean emptyAllowed) throws Failure {
+        String title = value == null ? "" : value.trim();
+        if (title.isEmpty() && emptyAllowed) return title;
+        BookValidator.Problem problem = BookValidator.checkTitle(title);
+        if (problem == BookValidator.Problem.EMPTY) throw new Failure(400, "empty-title");
+        if (problem == BookValidator.Problem.INVALID_CHARACTER) throw new Failure(400, "invalid-title");
+        return title;
+    }
+
+    private static String author(String value, boolean emptyAllowed) throws Failure {
+        String author = value == null ? "" : value.trim();
+        if (author.isEmpty() && emptyAllowed) return author;
+        BookValidator.Problem problem = BookValidator.checkAuthor(author);
+        if (problem == BookValidator.Problem.EMPTY) throw new Failure(400, "empty-author");
+        if (problem == BookValidator.Problem.INVALID_CHARACTER) throw new Failure(400, "invalid-author");
+        return author;
+    }
+
+    private static void appendBooks(StringBuilder json, List<BookRecord> books, int count) {
+        json.append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) json.append(',');
+            appendBook(json, books.get(i));
+        }
+        json.append(']');
+    }
+
+    private static void appendBook(StringBuilder json, BookRecord book) {
+        json.append("{\"id\":").append(book.id).append(",\"title\":");
+        appendString(json, book.title);
+        json.append(",\"author\":");
+        appendString(json, book.author);
+        json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < ' ') json.append(String.format("\\u%04x", (int) c));
+                    else json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    // A request that cannot be served, answered with the status and {"error":code}
+    private static final class Failure extends Exception {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        Failure(int status, String code) {
+            super(code, null, false, false);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps a repository persisted as a snapshot (CatalogFile) plus a journal of the changes
+// made since (CatalogJournal, "<snapshot>.journal"). Every change is journaled as it
+// happens, so an edit costs one small append instead of rewriting the catalog.
+// Once the journal grows past COMPACT_BYTES, or after a sort (the order is not
+// journaled), a new snapshot is written in the background and the journal starts over,
+// which bounds the work done on the next startup.
+final class CatalogStore implements CatalogListener, Closeable {
+    static final long COMPACT_BYTES = 8L << 20;
+
+    private final Path snapshot;
+    private final Path journalFile;
+    private final BookRepository books;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "library-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private CatalogJournal journal;
+    private boolean compacting; // Guarded by the repository lock
+
+    CatalogStore(Path snapshot, BookRepository books) {
+        this.snapshot = snapshot;
+        this.journalFile = snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+        this.books = books;
+    }
+
+    // Same without progress reports
+    void open() throws IOException {
+        open(CatalogFile.NO_PROGRESS);
+    }
+
+    // Loads the snapshot (see CatalogFile.load), replays the journal over it and starts
+    // journaling the repository's changes. Changes made to the repository before this
+    // returns are not journaled. The progress covers the snapshot only; the journal is
+    // kept short by compaction.
+    void open(CatalogFile.Progress progress) throws IOException {
+        CatalogFile.installPending(snapshot); // A snapshot compacted while the file was mapped (Windows)
+        long sequence = Files.exists(snapshot) ? CatalogFile.load(snapshot, books, progress) : 0;
+        CatalogEvent timing = Metrics.JOURNAL_REPLAY.start();
+        long loaded = sequence;
+        // Records of a snapshot that was not finished before the program stopped come first
+        sequence = CatalogJournal.replay(CatalogJournal.oldFile(journalFile), books, sequence);
+        sequence = CatalogJournal.replay(journalFile, books, sequence);
+        Metrics.JOURNAL_REPLAY.stop(timing, journalFile.toString(), sequence - loaded);
+        journal = CatalogJournal.open(journalFile, sequence);
+        books.addListener(this);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Journal " + journalFile + ": " + e.getMessage());
+            }
+        }, "library-journal-close"));
+    }
+
+    // Blocks until every change made so far is on disk
+    void flush() throws IOException {
+        checkOpen();
+        journal.flush();
+    }
+
+    // Undoes, on disk only, the changes made since open(); the next start sees the
+    // catalog as it was then. Returns false when some of them were already compacted
+    // into the snapshot: those are kept and only the changes made after that are undone.
+    boolean discardSession() throws IOException {
+        checkOpen();
+        books.removeListener(this);
+        return journal.discardSession();
+    }
+
+    @Override
+    public void close() throws IOException {
+        books.removeListener(this);
+        if (journal != null) journal.close();
+    }
+
+    private void checkOpen() throws IOException {
+        if (journal == null) throw new IOException("Catalog store is not open");
+    }
+
+    @Override
+    public void bookAdded(BookRecord book, long followingId) {
+        journal.added(book, followingId);
+        compactIfLarge();
+    }
+
+    @Override
+    public void bookUpdated(BookRecord old, BookRecord book) {
+        journal.updated(book);
+        compactIfLarge();
+    }
+
+    @Override
+    public void bookRemoved(BookRecord book, long followingId) {
+        journal.removed(book);
+        compactIfLarge();
+    }
+
+    @Override
+    public void catalogReordered() {
+        compact();
+    }
+
+    @Override
+    public void catalogCleared() {
+        journal.cleared();
+        compactIfLarge();
+    }
+
+    private void compactIfLarge() {
+        if (journal.size() > COMPACT_BYTES) compact();
+    }
+
+    // Called under the repository lock
+    private void compact() {
+        if (compacting) return;
+        compacting = true;
+        compactor.execute(() -> {
+            try {
+                // Only the snapshot and the journal's cut-over hold the repository lock
+                BookRepository.Snapshot[] contents = new BookRepository.Snapshot[1];
+                long sequence = journal.rotate(books, () -> {
+                    compacting = false; // Changes from now on go to the new journal
+                    contents[0] = books.snapshot();
+                });
+                CatalogFile.write(snapshot, contents[0], sequence);
+                journal.snapshotWritten();
+            } catch (IOException e) {
+                // The rotated records stay in the .old journal and are replayed on startup
+                System.err.println("Catalog compaction failed: " + e.getMessage());
+            }
+        });
+    }
+}
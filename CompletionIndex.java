@@ -0,0 +1,313 @@
+import java.util.*;
+
+// Autocomplete over one book field: the distinct values of the field (terms), each with
+// its number of books, in a prefix trie over their lower-case form. The trie is path
+// compressed, and an edge is not stored as chars but as a range of the text of a term
+// that has it, so the index holds no strings besides the terms themselves (the books'
+// own strings when they need no cleaning). Author names are also entered from the start
+// of each of their words, so "тол" completes "Лев Толстой"; titles only from their start,
+// as the substring search already finds words inside titles.
+//
+// Each node keeps the most books of any term at or below it. complete() walks the trie
+// best first from the node of the prefix, always expanding the node or term with the
+// most books, so it stops after about limit * depth steps however many terms share the
+// prefix. Terms of removed books stay with a count of 0 until clear(), like FuzzyIndex.
+final class CompletionIndex {
+    // A title or author name starting with the prefix, spelled as in its latest book
+    static final class Completion {
+        final String text;
+        final BookRepository.Field field; // TITLE or AUTHOR
+        final int books;
+
+        Completion(String text, BookRepository.Field field, int books) {
+            this.text = text;
+            this.field = field;
+            this.books = books;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    // Most books first, then the shorter text, then alphabetically
+    static final Comparator<Completion> RANKING = Comparator.comparingInt((Completion c) -> -c.books)
+            .thenComparingInt(c -> c.text.length())
+            .thenComparing(c -> c.text, String.CASE_INSENSITIVE_ORDER);
+
+    private final BookRepository.Field field;
+    // Terms: text with whitespace collapsed and the number of books having it
+    private String[] text = new String[256];
+    private int[] count = new int[256];
+    private int terms;
+    // Trie nodes. The edge from the parent is the chars edgeFrom.. edgeFrom + edgeLength
+    // of the text of edgeTerm, the first of them also kept in lower case in label, for the
+    // search among the children; best is the most books of a term at or below the node
+    // and links the first link of the terms ending there. Node 0 is the root, so 0 also
+    // means "none" for the node links, and link 0 is unused for the same reason.
+    private char[] label = new char[512];
+    private int[] edgeTerm = new int[512];
+    private int[] edgeFrom = new int[512];
+    private int[] edgeLength = new int[512];
+    private int[] firstChild = new int[512];
+    private int[] nextSibling = new int[512];
+    private int[] best = new int[512];
+    private int[] links = new int[512];
+    private int nodes = 1;
+    // Term links: the term ending at a node and the next link of that node
+    private int[] linkTerm = new int[512];
+    private int[] linkNext = new int[512];
+    private int linkCount = 1;
+    private int[] path = new int[32]; // Nodes of the last walk, from the root on
+    private int pathLength;
+
+    CompletionIndex(BookRepository.Field field) {
+        this.field = field;
+    }
+
+    // The value trimmed, with each run of whitespace made one space
+    static String clean(String value) {
+        if (BookRepository.isSingleSpaced(value)) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) sb.append(' ');
+            space = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    void add(BookRecord book) {
+        String value = clean(valueOf(book));
+        if (value.isEmpty()) return;
+        int term = find(value);
+        boolean walked = term >= 0;
+        if (term < 0) {
+            term = newTerm(value);
+            insert(term, 0);
+            if (field == BookRepository.Field.AUTHOR) {
+                for (int i = 1; i < value.length(); i++) if (value.charAt(i - 1) == ' ') insert(term, i);
+            }
+        } else {
+            text[term] = value; // Same chars up to case, so the edges pointing into it stay valid
+        }
+        count[term]++;
+        rerank(term, true, walked);
+    }
+
+    void remove(BookRecord book) {
+        String value = clean(valueOf(book));
+        if (value.isEmpty()) return;
+        int term = find(value);
+        if (term < 0 || count[term] == 0) return;
+        count[term]--;
+        rerank(term, false, true);
+    }
+
+    void clear() {
+        Arrays.fill(text, 0, terms, null);
+        terms = 0;
+        firstChild[0] = 0;
+        best[0] = 0;
+        links[0] = 0;
+        nodes = 1;
+        linkCount = 1;
+    }
+
+    // Up to limit terms starting with the prefix (a word of it for authors), ranked by RANKING.
+    // The prefix is compared without case; a trailing space only matches a space.
+    List<Completion> complete(String prefix, int limit) {
+        String key = clean(prefix);
+        if (!key.isEmpty() && Character.isWhitespace(prefix.charAt(prefix.length() - 1))) key += ' ';
+        List<Completion> found = new ArrayList<>();
+        int start = walk(key, 0, true);
+        if (start < 0 || limit <= 0 || best[start] == 0) return found;
+        // Entries {books, depth, link or 0, node}: most books first, then the shallower
+        // one, then terms before nodes, so equal counts come out shortest first
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Integer.compare(b[0], a[0])
+                : a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(b[2], a[2]));
+        queue.add(new int[] {best[start], 0, 0, start});
+        Set<Integer> seen = new HashSet<>(); // An author can be reached from two of its words
+        while (!queue.isEmpty() && found.size() < limit) {
+            int[] entry = queue.poll();
+            if (entry[2] != 0) {
+                int term = linkTerm[entry[2]];
+                if (seen.add(term)) found.add(new Completion(text[term], field, count[term]));
+                continue;
+            }
+            int node = entry[3];
+            for (int link = links[node]; link != 0; link = linkNext[link]) {
+                int books = count[linkTerm[link]];
+                if (books > 0) queue.add(new int[] {books, entry[1], link, node});
+            }
+            for (int child = firstChild[node]; child != 0; child = nextSibling[child]) {
+                if (best[child] > 0) queue.add(new int[] {best[child], entry[1] + edgeLength[child], 0, child});
+            }
+        }
+        found.sort(RANKING);
+        return found;
+    }
+
+    private String valueOf(BookRecord book) {
+        return field == BookRepository.Field.AUTHOR ? book.author : book.title;
+    }
+
+    // Term with exactly this text up to case, or -1
+    private int find(String value) {
+        int node = walk(value, 0, false);
+        if (node < 0) return -1;
+        // A term reached from one of its later words has a longer text
+        for (int link = links[node]; link != 0; link = linkNext[link]) if (text[linkTerm[link]].length() == value.length()) return linkTerm[link];
+        return -1;
+    }
+
+    private int newTerm(String value) {
+        if (terms == text.length) {
+            text = Arrays.copyOf(text, terms * 2);
+            count = Arrays.copyOf(count, terms * 2);
+        }
+        text[terms] = value;
+        count[terms] = 0;
+        return terms++;
+    }
+
+    // Adds the key of the term starting at the given char, splitting an edge if it ends inside one
+    private void insert(int term, int start) {
+        String value = text[term];
+        int node = 0;
+        int i = start;
+        while (i < value.length()) {
+            int child = child(node, Character.toLowerCase(value.charAt(i)));
+            if (child == 0) {
+                child = newNode(term, i, value.length() - i);
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+                node = child;
+                break;
+            }
+            int n = 1;
+            while (n < edgeLength[child] && i + n < value.length() && edgeMatches(child, n, value.charAt(i + n))) n++;
+            if (n < edgeLength[child]) child = split(node, child, n);
+            node = child;
+            i += n;
+        }
+        if (linkCount == linkTerm.length) {
+            linkTerm = Arrays.copyOf(linkTerm, linkCount * 2);
+            linkNext = Arrays.copyOf(linkNext, linkCount * 2);
+        }
+        linkTerm[linkCount] = term;
+        linkNext[linkCount] = links[node];
+        links[node] = linkCount++;
+    }
+
+    // Cuts the child's edge after n chars, with a new node in between; returns that node
+    private int split(int parent, int child, int n) {
+        int middle = newNode(edgeTerm[child], edgeFrom[child], n);
+        best[middle] = best[child];
+        nextSibling[middle] = nextSibling[child];
+        if (firstChild[parent] == child) firstChild[parent] = middle;
+        else {
+            int previous = firstChild[parent];
+            while (nextSibling[previous] != child) previous = nextSibling[previous];
+            nextSibling[previous] = middle;
+        }
+        firstChild[middle] = child;
+        nextSibling[child] = 0;
+        edgeFrom[child] += n;
+        edgeLength[child] -= n;
+        label[child] = edgeChar(child, 0);
+        return middle;
+    }
+
+    // After the term's count went up (raise) or down, brings best up to date along each of
+    // its keys; with walked, path already holds the nodes of the first one (see find)
+    private void rerank(int term, boolean raise, boolean walked) {
+        String value = text[term];
+        for (int i = 0; i < value.length(); i++) {
+            if (i > 0 && (field != BookRepository.Field.AUTHOR || value.charAt(i - 1) != ' ')) continue;
+            if (i > 0 || !walked) walk(value, i, false);
+            if (raise) {
+                for (int p = 0; p < pathLength; p++) best[path[p]] = Math.max(best[path[p]], count[term]);
+                continue;
+            }
+            for (int p = pathLength - 1; p >= 0; p--) {
+                int node = path[p];
+                int most = 0;
+                for (int link = links[node]; link != 0; link = linkNext[link]) most = Math.max(most, count[linkTerm[link]]);
+                for (int child = firstChild[node]; child != 0; child = nextSibling[child]) most = Math.max(most, best[child]);
+                if (most == best[node]) break; // The nodes above do not change either
+                best[node] = most;
+            }
+        }
+    }
+
+    // Node where the lower-case chars of s from the given index end, recording it and the
+    // nodes above it in path. With partial, the chars may also end inside the edge to a node, which
+    // is then returned; -1 if no key goes on like this.
+    private int walk(String s, int from, boolean partial) {
+        path[0] = 0;
+        pathLength = 1;
+        int node = 0;
+        int i = from;
+        while (i < s.length()) {
+            int child = child(node, Character.toLowerCase(s.charAt(i)));
+            if (child == 0) return -1;
+            int n = Math.min(edgeLength[child], s.length() - i);
+            for (int j = 1; j < n; j++) if (!edgeMatches(child, j, s.charAt(i + j))) return -1;
+            if (n < edgeLength[child] && !partial) return -1;
+            if (pathLength == path.length) path = Arrays.copyOf(path, pathLength * 2);
+            path[pathLength++] = child;
+            node = child;
+            i += n;
+        }
+        return node;
+    }
+
+    private char edgeChar(int node, int index) {
+        return Character.toLowerCase(text[edgeTerm[node]].charAt(edgeFrom[node] + index));
+    }
+
+    // Whether the char of the node's edge at the index is c up to case; the book being
+    // added or removed mostly spells it like the term the edge points into
+    private boolean edgeMatches(int node, int index, char c) {
+        char e = text[edgeTerm[node]].charAt(edgeFrom[node] + index);
+        return e == c || Character.toLowerCase(e) == Character.toLowerCase(c);
+    }
+
+    // Child of the node whose edge starts with the char, or 0
+    private int child(int node, char c) {
+        for (int child = firstChild[node]; child != 0; child = nextSibling[child]) if (label[child] == c) return child;
+        return 0;
+    }
+
+    private int newNode(int term, int from, int length) {
+        if (nodes == edgeTerm.length) {
+            int capacity = nodes * 2;
+            label = Arrays.copyOf(label, capacity);
+            edgeTerm = Arrays.copyOf(edgeTerm, capacity);
+            edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+            edgeLength = Arrays.copyOf(edgeLength, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            best = Arrays.copyOf(best, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+        int node = nodes++;
+        edgeTerm[node] = term;
+        edgeFrom[node] = from;
+        edgeLength[node] = length;
+        label[node] = Character.toLowerCase(text[term].charAt(from));
+        firstChild[node] = 0;
+        nextSibling[node] = 0;
+        best[node] = 0;
+        links[node] = 0;
+        return node;
+    }
+}
@@ -0,0 +1,128 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Dropdown of title and author completions under a text field (see BookRepository.complete).
+// Completions are looked up off the event dispatch thread, as the first lookup builds the
+// tries, and only the answer to the latest text is shown. Up and Down pick a completion,
+// Enter or a click puts it into the field, Escape closes the list.
+final class CompletionPopup {
+    static final int LIMIT = 8;
+
+    private final BookRepository books;
+    private final JTextField field;
+    private final JPopupMenu popup = new JPopupMenu();
+    private final DefaultListModel<CompletionIndex.Completion> model = new DefaultListModel<>();
+    private final JList<CompletionIndex.Completion> list = new JList<>(model);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "library-complete");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long generation; // Text changes so far, only touched on the EDT
+    private boolean choosing; // The field is being set to the chosen completion
+
+    CompletionPopup(BookRepository books, JTextField field) {
+        this.books = books;
+        this.field = field;
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFocusable(false);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, describe((CompletionIndex.Completion) value), index, isSelected, cellHasFocus);
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = list.locationToIndex(e.getPoint());
+                if (index >= 0) choose(model.get(index));
+            }
+        });
+        popup.setFocusable(false);
+        popup.add(new JScrollPane(list));
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { textChanged(); }
+            public void removeUpdate(DocumentEvent e) { textChanged(); }
+            public void changedUpdate(DocumentEvent e) { textChanged(); }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!popup.isVisible()) return;
+                int selected = list.getSelectedIndex();
+                int key = e.getKeyCode();
+                if (key == KeyEvent.VK_DOWN) list.setSelectedIndex(Math.min(selected + 1, model.size() - 1));
+                else if (key == KeyEvent.VK_UP) list.setSelectedIndex(Math.max(selected - 1, 0));
+                else if (key == KeyEvent.VK_ENTER && selected >= 0) choose(model.get(selected));
+                else if (key == KeyEvent.VK_ESCAPE) popup.setVisible(false);
+                else return;
+                e.consume();
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                popup.setVisible(false);
+            }
+        });
+    }
+
+    private static String describe(CompletionIndex.Completion completion) {
+        if (completion.field == BookRepository.Field.AUTHOR) return completion.text + "  —  автор, книг: " + completion.books;
+        return completion.books > 1 ? completion.text + "  —  книг: " + completion.books : completion.text;
+    }
+
+    private void textChanged() {
+        long current = ++generation;
+        String prefix = field.getText();
+        if (choosing || prefix.isBlank()) {
+            popup.setVisible(false);
+            return;
+        }
+        executor.execute(() -> {
+            List<CompletionIndex.Completion> found = books.complete(prefix, BookRepository.Field.ALL, LIMIT);
+            SwingUtilities.invokeLater(() -> {
+                if (current == generation) show(found);
+            });
+        });
+    }
+
+    private void show(List<CompletionIndex.Completion> found) {
+        // Nothing to offer once the text is a completion itself
+        if (found.isEmpty() || !field.isShowing() || !field.hasFocus()
+                || (found.size() == 1 && found.get(0).text.equalsIgnoreCase(field.getText().trim()))) {
+            popup.setVisible(false);
+            return;
+        }
+        model.clear();
+        model.addAll(found);
+        list.setVisibleRowCount(found.size());
+        list.clearSelection();
+        popup.setPreferredSize(null); // Measured again for the new rows
+        Dimension size = popup.getPreferredSize();
+        popup.setPopupSize(Math.max(field.getWidth(), size.width), size.height);
+        popup.show(field, 0, field.getHeight());
+    }
+
+    private void choose(CompletionIndex.Completion completion) {
+        popup.setVisible(false);
+        choosing = true;
+        try {
+            field.setText(completion.text);
+        } finally {
+            choosing = false;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Multimap from a 64-bit hash of a book's contents (see BookRepository.contentHash) to
+// the ids of the books having it, for the duplicate checks. Like IdMap, keys and values
+// are two primitive arrays with linear probing, so there is no object per book; entries
+// with the same hash are all in the probe run from its home slot. Book ids start at 1,
+// so id 0 marks an empty slot. Different contents can share a hash, so callers compare
+// the books themselves.
+final class ContentIndex {
+    private static final long[] NONE = new long[0];
+
+    private long[] hashes = new long[16];
+    private long[] ids = new long[16];
+    private int size;
+
+    void add(long hash, long id) {
+        if (++size * 2 > hashes.length) resize(hashes.length * 2);
+        int at = home(hash);
+        while (ids[at] != 0) at = (at + 1) & (hashes.length - 1);
+        hashes[at] = hash;
+        ids[at] = id;
+    }
+
+    void remove(long hash, long id) {
+        int mask = hashes.length - 1;
+        int at = home(hash);
+        while (ids[at] != 0 && (ids[at] != id || hashes[at] != hash)) at = (at + 1) & mask;
+        if (ids[at] == 0) return;
+        size--;
+        // Moves back each following entry of the run that is not at or after its home slot
+        for (int next = (at + 1) & mask; ids[next] != 0; next = (next + 1) & mask) {
+            int home = home(hashes[next]);
+            if (((next - home) & mask) >= ((next - at) & mask)) {
+                hashes[at] = hashes[next];
+                ids[at] = ids[next];
+                at = next;
+            }
+        }
+        ids[at] = 0;
+    }
+
+    // Ids of the books with the hash, in no particular order
+    long[] get(long hash) {
+        int mask = hashes.length - 1;
+        long[] found = NONE;
+        int n = 0;
+        for (int at = home(hash); ids[at] != 0; at = (at + 1) & mask) {
+            if (hashes[at] != hash) continue;
+            if (n == found.length) found = Arrays.copyOf(found, Math.max(2, n * 2));
+            found[n++] = ids[at];
+        }
+        return n == found.length ? found : Arrays.copyOf(found, n);
+    }
+
+    // Ids of each hash held by more than one book. Each entry scans the probe run of its
+    // hash once, so this is linear in the number of books while the runs stay short, as
+    // they do at this load factor.
+    List<long[]> repeated() {
+        List<long[]> groups = new ArrayList<>();
+        int mask = hashes.length - 1;
+        for (int i = 0; i < hashes.length; i++) {
+            if (ids[i] == 0) continue;
+            long hash = hashes[i];
+            // The group is reported from the first of its entries in probe order
+            boolean first = true;
+            int count = 0;
+            for (int at = home(hash); ids[at] != 0; at = (at + 1) & mask) {
+                if (hashes[at] != hash) continue;
+                if (count++ == 0 && at != i) {
+                    first = false;
+                    break;
+                }
+            }
+            if (first && count > 1) groups.add(get(hash));
+        }
+        return groups;
+    }
+
+    void clear() {
+        hashes = new long[16];
+        ids = new long[16];
+        size = 0;
+    }
+
+    private int home(long hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (hashes.length - 1);
+    }
+
+    private void resize(int capacity) {
+        long[] oldHashes = hashes;
+        long[] oldIds = ids;
+        hashes = new long[capacity];
+        ids = new long[capacity];
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldIds[i] == 0) continue;
+            int at = home(oldHashes[i]);
+            while (ids[at] != 0) at = (at + 1) & (capacity - 1);
+            hashes[at] = oldHashes[i];
+            ids[at] = oldIds[i];
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.*;
+import java.util.function.Function;
+
+// Typo-tolerant word index of one book field, for searches that found nothing exactly.
+//
+// The field is split into words, and each word is reduced to a key: lower case, with
+// Cyrillic transliterated to Latin (see KEYS), so "Булгаков" and "Bulgakov" get the same
+// key, and so do "Достоевский" and "Достоевскии". Keys map to postings of book ids like
+// in NGramIndex. The distinct keys also form a trie, which a search walks computing one
+// row of the Levenshtein table per node, the way a Levenshtein automaton would run over
+// the sorted dictionary: a branch is left as soon as every entry of its row exceeds the
+// allowed distance, so only keys sharing a near prefix with the query are visited.
+// Only the band of the row within that distance of the diagonal is computed, and when two
+// typos are allowed the first letter must match (like the prefix length of Lucene's fuzzy
+// query): that keeps the walk from visiting most of the short prefixes.
+final class FuzzyIndex {
+    // Latin spelling of the Russian letters а..я; ё is spelled like е
+    private static final String[] KEYS = {
+            "a", "b", "v", "g", "d", "e", "zh", "z", "i", "i", "k", "l", "m", "n", "o", "p",
+            "r", "s", "t", "u", "f", "kh", "ts", "ch", "sh", "shch", "", "y", "", "e", "yu", "ya"
+    };
+
+    private final Function<BookRecord, String> field;
+    // Postings per key; emptied lists stay (and their keys stay in the trie) until clear()
+    private final Map<String, IdList> byKey = new HashMap<>();
+    // Trie nodes: char of the edge from the parent, first child, next sibling and the
+    // postings of the key ending here (null if none). Node 0 is the root, so 0 also
+    // means "none" for the links.
+    private char[] label = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private IdList[] postings = new IdList[1024];
+    private int nodes = 1;
+
+    FuzzyIndex(Function<BookRecord, String> field) {
+        this.field = field;
+    }
+
+    // A key of the index and the distance of the query key to it
+    interface Match {
+        void found(IdList ids, int distance);
+    }
+
+    // Keys of the words of the text, in order; a word without letters or digits has none
+    static List<String> keys(String text) {
+        List<String> keys = new ArrayList<>();
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if (c >= 'а' && c <= 'я') key.append(KEYS[c - 'а']);
+            else if (c == 'ё') key.append('e');
+            else if (Character.isLetterOrDigit(c)) key.append(c);
+            else if (key.length() > 0) {
+                keys.add(key.toString());
+                key.setLength(0);
+            }
+        }
+        return keys;
+    }
+
+    // Typos allowed in a query word: none in short words, where one changed letter
+    // already makes a different common word, then one, then two from 8 letters
+    static int maxDistance(String key) {
+        return key.length() < 4 ? 0 : key.length() < 8 ? 1 : 2;
+    }
+
+    void add(BookRecord book) {
+        for (String key : keys(field.apply(book))) {
+            IdList ids = byKey.get(key);
+            if (ids == null) {
+                ids = new IdList();
+                byKey.put(key, ids);
+                int node = 0;
+                for (int i = 0; i < key.length(); i++) node = child(node, key.charAt(i));
+                postings[node] = ids;
+            }
+            ids.add(book.id);
+        }
+    }
+
+    void remove(BookRecord book) {
+        for (String key : keys(field.apply(book))) {
+            IdList ids = byKey.get(key);
+            if (ids != null) ids.remove(book.id);
+        }
+    }
+
+    void clear() {
+        byKey.clear();
+        Arrays.fill(postings, 0, nodes, null);
+        firstChild[0] = 0;
+        nodes = 1;
+    }
+
+    // Reports every key within maxDistance of the given key, each once; with a maxDistance
+    // above 1 only keys starting with the same char
+    void search(String key, int maxDistance, Match match) {
+        if (maxDistance == 0) {
+            IdList ids = byKey.get(key);
+            if (ids != null && ids.size() > 0) match.found(ids, 0);
+            return;
+        }
+        int m = key.length();
+        int far = maxDistance + 1; // Stands for every distance beyond maxDistance
+        // rows[d] is the row of the node at depth d: distances from its prefix to each prefix of key
+        int[][] rows = new int[16][m + 1];
+        for (int j = 0; j <= m; j++) rows[0][j] = Math.min(j, far);
+        int[] stack = new int[64]; // Nodes to visit, each followed by its depth
+        int top = 0;
+        for (int child = firstChild[0]; child != 0; child = nextSibling[child]) {
+            stack[top++] = child;
+            stack[top++] = 1;
+            if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+        }
+        while (top > 0) {
+            int depth = stack[--top];
+            int node = stack[--top];
+            if (depth == rows.length) rows = Arrays.copyOf(rows, depth * 2);
+            if (rows[depth] == null) rows[depth] = new int[m + 1];
+            if (depth == 1 && maxDistance > 1 && (m == 0 || label[node] != key.charAt(0))) continue;
+            int[] previous = rows[depth - 1];
+            int[] row = rows[depth];
+            char c = label[node];
+            // Entries more than maxDistance off the diagonal are far; the ones next to the
+            // band are set to far so that the next row can read them
+            int low = Math.max(0, depth - maxDistance);
+            int high = Math.min(m, depth + maxDistance);
+            if (low > high) continue;
+            if (low > 0) row[low - 1] = far;
+            int best = far;
+            for (int j = low; j <= high; j++) {
+                int value;
+                if (j == 0) value = depth;
+                else value = Math.min(previous[j - 1] + (key.charAt(j - 1) == c ? 0 : 1), Math.min(previous[j], row[j - 1]) + 1);
+                row[j] = Math.min(value, far);
+                best = Math.min(best, row[j]);
+            }
+            if (high < m) row[high + 1] = far;
+            if (high == m && row[m] <= maxDistance && postings[node] != null && postings[node].size() > 0) match.found(postings[node], row[m]);
+            if (best > maxDistance) continue;
+            for (int child = firstChild[node]; child != 0; child = nextSibling[child]) {
+                if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = child;
+                stack[top++] = depth + 1;
+            }
+        }
+    }
+
+    // Child of the node along the char, or -1
+    private int find(int node, char c) {
+        for (int child = firstChild[node]; child != 0; child = nextSibling[child]) if (label[child] == c) return child;
+        return -1;
+    }
+
+    // Child of the node along the char, added if missing
+    private int child(int node, char c) {
+        int child = find(node, c);
+        if (child >= 0) return child;
+        if (nodes == label.length) {
+            int capacity = nodes * 2;
+            label = Arrays.copyOf(label, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            postings = Arrays.copyOf(postings, capacity);
+        }
+        child = nodes++;
+        label[child] = c;
+        firstChild[child] = 0;
+        nextSibling[child] = firstChild[node];
+        firstChild[node] = child;
+        return child;
+    }
+}
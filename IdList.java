@@ -0,0 +1,47 @@
+import java.util.Arrays;
+
+// Growable sorted array of book ids, used as a postings list by the indexes
+final class IdList {
+    private long[] ids = new long[4];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    long get(int index) {
+        return ids[index];
+    }
+
+    // Adds the id unless it is already present; appending a larger id is O(1)
+    void add(long id) {
+        if (size > 0 && ids[size - 1] >= id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) return;
+            insert(-at - 1, id);
+        } else insert(size, id);
+    }
+
+    void remove(long id) {
+        int at = Arrays.binarySearch(ids, 0, size, id);
+        if (at < 0) return;
+        System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+        size--;
+    }
+
+    // Position of the id at or after from, or -(insertion point) - 1 if absent
+    int find(long id, int from) {
+        return Arrays.binarySearch(ids, from, size, id);
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    private void insert(int at, long id) {
+        if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+        System.arraycopy(ids, at, ids, at + 1, size - at);
+        ids[at] = id;
+        size++;
+    }
+}
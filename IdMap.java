@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+// Map from book id to slot for BookRepository, with keys and values in two primitive
+// arrays (open addressing, linear probing) instead of a HashMap entry, a Long and an
+// Integer per book. Removal shifts the following entries back, so there are no tombstones.
+final class IdMap {
+    private static final int NONE = -1;
+
+    private long[] keys = new long[16];
+    private int[] values = empty(16);
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    // Value stored for the id, or -1
+    int get(long id) {
+        return values[find(id)];
+    }
+
+    // Values must not be negative
+    void put(long id, int value) {
+        int at = find(id);
+        if (values[at] == NONE) {
+            if (++size * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+                at = find(id);
+            }
+            keys[at] = id;
+        }
+        values[at] = value;
+    }
+
+    void remove(long id) {
+        int at = find(id);
+        if (values[at] == NONE) return;
+        size--;
+        int mask = keys.length - 1;
+        // Moves back each following entry of the run that is not at or after its home slot
+        for (int next = (at + 1) & mask; values[next] != NONE; next = (next + 1) & mask) {
+            int home = home(keys[next]);
+            if (((next - home) & mask) >= ((next - at) & mask)) {
+                keys[at] = keys[next];
+                values[at] = values[next];
+                at = next;
+            }
+        }
+        values[at] = NONE;
+    }
+
+    void clear() {
+        keys = new long[16];
+        values = empty(16);
+        size = 0;
+    }
+
+    // Slot holding the id, or the empty slot where it belongs
+    private int find(long id) {
+        int mask = keys.length - 1;
+        int at = home(id);
+        while (values[at] != NONE && keys[at] != id) at = (at + 1) & mask;
+        return at;
+    }
+
+    private int home(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = empty(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == NONE) continue;
+            int at = find(oldKeys[i]);
+            keys[at] = oldKeys[i];
+            values[at] = oldValues[i];
+        }
+    }
+
+    private static int[] empty(int capacity) {
+        int[] values = new int[capacity];
+        Arrays.fill(values, NONE);
+        return values;
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Hash index from a normalized key to the ids of the books having it.
+// Most keys belong to a single book, so that id is stored directly
+// and only repeated keys get an IdList.
+final class KeyIndex {
+    private static final long[] NONE = new long[0];
+
+    private final Map<String, Object> ids = new HashMap<>(); // Long or IdList
+
+    void add(String key, long id) {
+        Object current = ids.putIfAbsent(key, id);
+        if (current == null) return;
+        if (current instanceof IdList) {
+            ((IdList) current).add(id);
+            return;
+        }
+        IdList list = new IdList();
+        list.add((Long) current);
+        list.add(id);
+        ids.put(key, list);
+    }
+
+    void remove(String key, long id) {
+        Object current = ids.get(key);
+        if (current instanceof IdList) {
+            IdList list = (IdList) current;
+            list.remove(id);
+            if (list.size() == 1) ids.put(key, list.get(0));
+        } else if (current != null && (Long) current == id) ids.remove(key);
+    }
+
+    // Sorted ids stored under the key
+    long[] get(String key) {
+        Object current = ids.get(key);
+        if (current == null) return NONE;
+        if (current instanceof IdList) return ((IdList) current).toArray();
+        return new long[] {(Long) current};
+    }
+
+    void clear() {
+        ids.clear();
+    }
+}
@@ -1,7 +1,11 @@
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.IntFunction;
 
 public class LibraryManager {
+    // Serialized form of a book, kept so that library_data.ser files from earlier versions can be migrated
     static class Book implements Serializable {
         @Serial
         private static final long serialVersionUID = 1L;
@@ -12,23 +16,41 @@ public class LibraryManager {
             this.title = title;
             this.author = author;
         }
-
-        @Override // Annotation indicating override of parent class method
-        public String toString() {
-            return "Название: " + title + ", Автор: " + author;
-        }
     }
-    // Current list of books in the library
-    private static List<Book> books = new ArrayList<>();
+    // Current books in the library
+    private static final BookRepository books = new BookRepository();
     // For reading user input from console
     private static final Scanner scanner = new Scanner(System.in);
-    // File for serialization, data storage
+    // File for data storage (binary catalog, see CatalogFile)
+    private static final Path DATA_FILE = Path.of("library_data.lbc");
+    // Java serialization file of earlier versions, migrated to DATA_FILE on first start
     private static final String SERIALIZATION_FILE = "library_data.ser";
+    // Journals every change next to DATA_FILE (see CatalogStore)
+    private static final CatalogStore store = new CatalogStore(DATA_FILE, books);
+    // Writes the text files of "Сохранить в файл"
+    private static final CatalogExporter exporter = new CatalogExporter();
+    // Books printed at a time by the list and the search
+    private static final int PAGE_SIZE = 20;
+    // Completions offered for a search value ending in '*'
+    private static final int SUGGESTIONS = 8;
+    // Undo and redo of the changes made from the menu, once the catalog is loaded
+    private static CatalogHistory history;
+    // The catalog could not be opened: changes would not be saved, so none are allowed
+    private static boolean readOnly;
 
     public static void main(String[] args) {
+        Metrics.watch(books);
+        // With arguments the program serves HTTP requests (see CatalogServer)
+        // or runs commands (see CatalogBatch) without asking anything
+        if (args.length > 0 && args[0].equals("--serve")) {
+            if (!serve(args)) System.exit(2);
+            return;
+        }
+        if (args.length > 0) System.exit(runBatch(args));
         System.out.println("== Менеджер библиотеки ==");
         // Load data on new startup
         autoLoadSerializedData();
+        history = new CatalogHistory(books);
         // Menu of available options for the user
         while (true) {
             System.out.println("---- Меню ----");
@@ -39,33 +61,87 @@ public class LibraryManager {
             System.out.println("5. Найти книгу");
             System.out.println("6. Сохранить в файл");
             System.out.println("7. Загрузить из файла");
+            System.out.println("8. Метрики");
+            System.out.println("9. Найти дубликаты");
+            System.out.println("10. Отменить последнее изменение");
+            System.out.println("11. Вернуть отмененное изменение");
             System.out.println("0. Выход");
             System.out.print("Выберите действие: ");
             // Reading user choice and further processing
             String choice = scanner.nextLine();
             switch (choice) {
-                case "1": addBook(); break;
-                case "2": editBook(); break;
-                case "3": deleteBook(); break;
+                case "1": if (editable()) addBook(); break;
+                case "2": if (editable()) editBook(); break;
+                case "3": if (editable()) deleteBook(); break;
                 case "4": displayBooks(); break;
                 case "5": searchBooks(); break;
                 case "6": saveToFile(); break;
-                case "7": loadFromFile(); break;
+                case "7": if (editable()) loadFromFile(); break;
+                case "8": showMetrics(); break;
+                case "9": showDuplicates(); break;
+                case "10": if (editable()) undo(); break;
+                case "11": if (editable()) redo(); break;
                 case "0":
                     askToSaveBeforeExit(); // Ask about saving data before exit
                     return;
-                default: System.out.println("Не понимаю Вас. Попробуйте снова. Нужно ввести лишь одну цифру.");
+                default: System.out.println("Не понимаю Вас. Попробуйте снова. Нужно ввести лишь номер пункта меню.");
+            }
+        }
+    }
+
+    // "--batch FILE" runs the commands of the file ("-" for standard input), anything else is
+    // a single command, e.g. add "Title" "Author". Returns the exit status: 0 if all commands
+    // succeeded, 1 if some failed, 2 if the catalog could not be opened or saved.
+    private static int runBatch(String[] args) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            openCatalog();
+            CatalogBatch batch = new CatalogBatch(books, store, exporter, out);
+            if (args[0].equals("--batch")) {
+                if (args.length != 2) {
+                    System.err.println("Использование: LibraryManager --batch ФАЙЛ");
+                    return 2;
+                }
+                try (BufferedReader commands = args[1].equals("-")
+                        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                        : Files.newBufferedReader(Path.of(args[1]))) {
+                    batch.run(commands);
+                }
+            } else {
+                try {
+                    batch.execute(1, args);
+                } finally {
+                    out.flush();
+                }
             }
+            store.flush();
+            return batch.errors() == 0 ? 0 : 1;
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Ошибка: " + e.getMessage());
+            return 2;
         }
     }
 
-    private static boolean isValidTitle(String title) {
-        String regex = "^[a-zA-Zа-яА-ЯёЁ0-9\\s?!+:;№\"'.,/-]+$";
-        return title.matches(regex);
+    // "--serve [PORT]": answers HTTP requests on 127.0.0.1 until the process is stopped;
+    // returns false if the server could not be started
+    private static boolean serve(String[] args) {
+        try {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : CatalogServer.DEFAULT_PORT;
+            openCatalog();
+            CatalogServer server = new CatalogServer(books, port);
+            server.start();
+            System.out.println("Сервер запущен: http://127.0.0.1:" + server.port() + "/books (книг: " + books.size() + ")");
+            return true;
+        } catch (NumberFormatException e) {
+            System.err.println("Использование: LibraryManager --serve [ПОРТ]");
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Ошибка: " + e.getMessage());
+        }
+        return false;
     }
-    private static boolean isValidAuthor(String author) {
-        String regex = "^[a-zA-Zа-яА-ЯёЁ\\s-.]+$";
-        return author.matches(regex);
+
+    private static String formatBook(BookRecord book) {
+        return "Название: " + book.title + ", Автор: " + book.author;
     }
 
     // Method for adding a new book
@@ -75,11 +151,12 @@ public class LibraryManager {
         while (true) {
             System.out.print("Введите название: ");
             title = scanner.nextLine().trim();
-            if (title.isEmpty()) {
+            BookValidator.Problem problem = BookValidator.checkTitle(title);
+            if (problem == BookValidator.Problem.EMPTY) {
                 System.out.println("Ошибка: вы ничего не ввели!");
                 continue;
             }
-            if (!isValidTitle(title)) {
+            if (problem == BookValidator.Problem.INVALID_CHARACTER) {
                 System.out.println("Ошибка: название книги может содержать только русские и латинские буквы, цифры и специальные символы.");
                 continue;
             }
@@ -90,18 +167,32 @@ public class LibraryManager {
         while (true) {
             System.out.print("Введите автора: ");
             author = scanner.nextLine().trim();
-            if (author.isEmpty()) {
+            BookValidator.Problem problem = BookValidator.checkAuthor(author);
+            if (problem == BookValidator.Problem.EMPTY) {
                 System.out.println("Ошибка: вы ничего не ввели!");
                 continue;
             }
-            if (!isValidAuthor(author)) {
+            if (problem == BookValidator.Problem.INVALID_CHARACTER) {
                 System.out.println("Ошибка: имя автора может содержать только русские и латинские буквы и символ: -");
                 continue;
             }
             break;
         }
-        Book newBook = new Book(title, author);
-        books.add(newBook);
+        BookRecord existing = books.findDuplicate(title, author);
+        if (existing != null) {
+            System.out.println("Такая книга уже есть под номером " + (books.positionOf(existing.id) + 1) + ": " + formatBook(existing));
+            while (true) {
+                System.out.print("Все равно добавить? (да/нет): ");
+                String answer = scanner.nextLine().trim().toLowerCase();
+                if (answer.equals("да") || answer.equals("д")) break;
+                if (answer.equals("нет") || answer.equals("н")) {
+                    System.out.println("Книга не добавлена.");
+                    return;
+                }
+                System.out.println("Ошибка: введите 'да' или 'нет'!");
+            }
+        }
+        books.add(title, author);
         System.out.println("Книга успешно добавлена!");
     }
 
@@ -112,20 +203,19 @@ public class LibraryManager {
             return;
         }
         System.out.println("\n--- Редактирование книги ---");
-        displayBooks();
-        int index;
-        while (true) {
+        int index = listBooks("для редактирования"); // The number may be typed while paging
+        while (index < 0) {
             System.out.print("Введите номер книги для редактирования (1-" + books.size() + "): ");
             try {
-                index = Integer.parseInt(scanner.nextLine()) - 1;
+                int number = Integer.parseInt(scanner.nextLine()) - 1;
                 // Check validity of entered index
-                if (index >= 0 && index < books.size()) break;
+                if (number >= 0 && number < books.size()) index = number;
                 else System.out.println("Ошибка: введите номер от 1 до " + books.size() + "!");
             } catch (NumberFormatException e) {
                 System.out.println("Ошибка: введите корректный номер!");
             }
         }
-        Book book = books.get(index); // Get book by index
+        long id = books.getAt(index).id; // Get book by index
         System.out.println("\nЧто вы хотите отредактировать?");
         System.out.println("1. Только название");
         System.out.println("2. Только автора");
@@ -141,20 +231,26 @@ public class LibraryManager {
                 System.out.print("Выберите вариант (1-3): ");
             }
         }
-        // Edit depending on choice
-        switch (choice) {
-            case "1": editTitle(book); break; // Title
-            case "2": editAuthor(book); break; // Author
-            case "3": // Title and author
-                editTitle(book);
-                editAuthor(book);
-                break;
+        // Edit depending on choice; both fields are undone together
+        history.begin("изменение книги");
+        try {
+            switch (choice) {
+                case "1": editTitle(id); break; // Title
+                case "2": editAuthor(id); break; // Author
+                case "3": // Title and author
+                    editTitle(id);
+                    editAuthor(id);
+                    break;
+            }
+        } finally {
+            history.end();
         }
         System.out.println("Книга отредактирована!");
     }
 
     // Method for editing title
-    private static void editTitle(Book book) {
+    private static void editTitle(long id) {
+        BookRecord book = books.get(id);
         while (true) {
             System.out.print("Введите новое название [" + book.title + "]: ");
             String newTitle = scanner.nextLine().trim();
@@ -162,17 +258,18 @@ public class LibraryManager {
                 System.out.println("Название не изменено.");
                 break;
             }
-            if (!isValidTitle(newTitle)) {
+            if (!BookValidator.isValidTitle(newTitle)) {
                 System.out.println("Ошибка: название может содержать только русские и латинские буквы, цифры, пробелы и специальные символы.");
                 continue;
             }
-            book.title = newTitle;
+            books.update(id, newTitle, book.author);
             break;
         }
     }
 
     // Method for editing author
-    private static void editAuthor(Book book) {
+    private static void editAuthor(long id) {
+        BookRecord book = books.get(id);
         while (true) {
             System.out.print("Введите нового автора [" + book.author + "]: ");
             String newAuthor = scanner.nextLine().trim();
@@ -180,11 +277,11 @@ public class LibraryManager {
                 System.out.println("Автор не изменен.");
                 break;
             }
-            if (!isValidAuthor(newAuthor)) {
+            if (!BookValidator.isValidAuthor(newAuthor)) {
                 System.out.println("Ошибка: автор может содержать только русские и латинские буквы, пробелы и символы: -.");
                 continue;
             }
-            book.author = newAuthor;
+            books.update(id, book.title, newAuthor);
             break;
         }
     }
@@ -195,19 +292,18 @@ public class LibraryManager {
             return;
         }
         System.out.println("\n--- Удаление книги ---");
-        displayBooks();
-        int index;
-        while (true) {
+        int index = listBooks("для удаления");
+        while (index < 0) {
             System.out.print("Введите номер книги для удаления (1-" + books.size() + "): ");
             try {
-                index = Integer.parseInt(scanner.nextLine()) - 1;
-                if (index >= 0 && index < books.size()) break;
+                int number = Integer.parseInt(scanner.nextLine()) - 1;
+                if (number >= 0 && number < books.size()) index = number;
                 else System.out.println("Ошибка: введите номер от 1 до " + books.size() + "!");
             } catch (NumberFormatException e) {
                 System.out.println("Ошибка: введите корректный номер!");
             }
         }
-        Book bookToDelete = books.get(index);
+        BookRecord bookToDelete = books.getAt(index);
         while (true) {
             System.out.println("\nВы выбрали для удаления:");
             System.out.println("Название: " + bookToDelete.title);
@@ -216,7 +312,7 @@ public class LibraryManager {
 
             String choice = scanner.nextLine().trim().toLowerCase();
             if (choice.equals("да") || choice.equals("д")) {
-                books.remove(index);
+                books.remove(bookToDelete.id);
                 System.out.println("Книга удалена!");
                 break;
             } else if (choice.equals("нет") || choice.equals("н")) {
@@ -228,12 +324,127 @@ public class LibraryManager {
 
     // Method for displaying all books
     private static void displayBooks() {
+        listBooks(null);
+    }
+
+    // Lists all books; for editBook and deleteBook (purpose e.g. "для удаления") the reader
+    // can also type a book's number at the paging prompt. Returns its 0-based position, or -1.
+    private static int listBooks(String purpose) {
         if (books.isEmpty()) {
             System.out.println("Список книг пуст!");
-            return;
+            return -1;
         }
         System.out.println("\n--- Список книг ---");
-        for (int i = 0; i < books.size(); i++) System.out.println((i + 1) + ". " + books.get(i));
+        // Numbers are positions in the catalog, as editBook and deleteBook expect
+        return showPages(offset -> books.page(BookRepository.Order.ADDED, offset, PAGE_SIZE), purpose);
+    }
+
+    // Prints books a page at a time, numbered across pages, until the reader stops or the
+    // books run out. Pages are read from the source as they are needed, in order, by their
+    // offset; one page ahead, to know whether there is a next one. Pages seen are kept for
+    // going back. With a purpose the numbers are catalog positions and the reader can
+    // pick a book by typing its number; returns its 0-based position, otherwise -1.
+    private static int showPages(IntFunction<List<BookRecord>> source, String purpose) {
+        List<List<BookRecord>> pages = new ArrayList<>();
+        pages.add(source.apply(0));
+        int current = 0;
+        while (true) {
+            List<BookRecord> page = pages.get(current);
+            int first = current * PAGE_SIZE;
+            for (int i = 0; i < page.size(); i++) System.out.println((first + i + 1) + ". " + formatBook(page.get(i)));
+            if (current == pages.size() - 1 && page.size() == PAGE_SIZE) pages.add(source.apply(first + PAGE_SIZE));
+            boolean more = current < pages.size() - 1 && !pages.get(current + 1).isEmpty();
+            if (!more && current == 0) return -1;
+            List<String> options = new ArrayList<>();
+            if (purpose != null) options.add("номер - выбрать книгу " + purpose);
+            if (more) options.add("Enter - следующая страница");
+            if (current > 0) options.add("п - предыдущая");
+            options.add("0 - закончить просмотр");
+            System.out.print("Книги " + (first + 1) + "-" + (first + page.size()) + (more ? "" : " (последняя страница)") + ". " + String.join(", ", options) + ": ");
+            while (true) {
+                String choice = scanner.nextLine().trim().toLowerCase();
+                if (choice.isEmpty() && more) {
+                    current++;
+                } else if (choice.equals("п") && current > 0) {
+                    current--;
+                } else if (choice.equals("0") || choice.isEmpty()) {
+                    return -1;
+                } else if (purpose != null && choice.matches("\\d{1,9}")) {
+                    int index = Integer.parseInt(choice) - 1;
+                    if (index >= 0 && index < books.size()) return index;
+                    System.out.print("Ошибка: введите номер от 1 до " + books.size() + ": ");
+                    continue;
+                } else {
+                    System.out.print("Ошибка: " + String.join(", ", options) + ": ");
+                    continue;
+                }
+                break;
+            }
+        }
+    }
+
+    // How an import dealt with books already in the catalog, by the duplicates policy
+    private static String duplicatesText(long duplicates) {
+        if (BookRepository.DEFAULT_DUPLICATES == BookRepository.Duplicates.MERGE) return "Объединено с уже имеющимися книгами: " + duplicates;
+        return "Пропущено книг, которые уже есть в библиотеке: " + duplicates;
+    }
+
+    // Groups of books with the same title and author up to case, spaces and ё, a page of
+    // groups at a time, with the numbers of the books in the list for deleting them
+    private static void showDuplicates() {
+        List<List<BookRecord>> groups = books.duplicates();
+        if (groups.isEmpty()) {
+            System.out.println("Дубликатов нет.");
+            return;
+        }
+        int extra = 0;
+        for (List<BookRecord> group : groups) extra += group.size() - 1;
+        System.out.println("\n--- Дубликаты ---");
+        System.out.println("Групп: " + groups.size() + ", лишних книг: " + extra);
+        for (int i = 0; i < groups.size(); i++) {
+            System.out.println("Группа " + (i + 1) + ":");
+            for (BookRecord book : groups.get(i)) {
+                int position = books.positionOf(book.id);
+                if (position >= 0) System.out.println("  " + (position + 1) + ". " + formatBook(book));
+            }
+            if ((i + 1) % PAGE_SIZE == 0 && i + 1 < groups.size()) {
+                System.out.print("Enter - следующие группы, 0 - закончить просмотр: ");
+                if (!scanner.nextLine().trim().isEmpty()) return;
+            }
+        }
+    }
+
+    // Timings of the catalog operations and file I/O so far, and the catalog gauges (see Metrics)
+    private static void showMetrics() {
+        System.out.println("\n--- Метрики ---");
+        System.out.print(Metrics.text());
+    }
+
+    // Lists the titles or authors starting with the prefix, those with the most books first
+    // (see BookRepository.complete); returns the one picked by number, or the prefix itself
+    private static String suggest(String prefix, BookRepository.Field field) {
+        List<CompletionIndex.Completion> completions = books.complete(prefix, field, SUGGESTIONS);
+        if (completions.isEmpty()) {
+            System.out.println("Подсказок нет.");
+            return prefix;
+        }
+        System.out.println("Подсказки:");
+        for (int i = 0; i < completions.size(); i++) {
+            CompletionIndex.Completion completion = completions.get(i);
+            System.out.println((i + 1) + ". " + completion.text + (completion.books > 1 ? " (книг: " + completion.books + ")" : ""));
+        }
+        System.out.print("Номер подсказки или Enter - искать \"" + prefix + "\": ");
+        while (true) {
+            String choice = scanner.nextLine().trim();
+            if (choice.isEmpty()) return prefix;
+            try {
+                int number = Integer.parseInt(choice);
+                if (number >= 1 && number <= completions.size()) return completions.get(number - 1).text;
+            } catch (NumberFormatException e) {
+                // Asked again below
+            }
+            System.out.print("Ошибка: введите номер от 1 до " + completions.size() + " или нажмите Enter: ");
+        }
     }
 
     // Method for searching books by various attributes
@@ -253,49 +464,41 @@ public class LibraryManager {
                 if (choice.equals("1") || choice.equals("2")) break;
                 else System.out.println("Ошибка: введите 1 или 2!");
             }
+            BookRepository.Field field = choice.equals("1") ? BookRepository.Field.TITLE : BookRepository.Field.AUTHOR;
             // Check search input
             String searchValue;
             while (true) {
-                System.out.print("Введите значение для поиска: ");
+                System.out.print("Введите значение для поиска (начало и * - подсказки): ");
                 searchValue = scanner.nextLine().trim();
-                if (searchValue.isEmpty()) {
+                if (searchValue.endsWith("*")) searchValue = suggest(searchValue.substring(0, searchValue.length() - 1).trim(), field);
+                BookValidator.Problem problem = choice.equals("1") ? BookValidator.checkTitle(searchValue) : BookValidator.checkAuthor(searchValue);
+                if (problem == BookValidator.Problem.EMPTY) {
                     System.out.println("Ошибка: вы ничего не ввели!");
                     continue;
                 }
                 // Check input validity
-                if (choice.equals("1")) {
-                    if (!isValidTitle(searchValue)) {
+                if (problem == BookValidator.Problem.INVALID_CHARACTER) {
+                    if (choice.equals("1")) {
                         System.out.println("Ошибка: поисковый запрос может содержать только русские и латинские буквы, цифры, пробелы и специальные символы");
-                        continue;
-                    }
-                } else {
-                    if (!isValidAuthor(searchValue)) {
+                    } else {
                         System.out.println("Ошибка: поисковый запрос может содержать только русские и латинские буквы, пробелы и символы: -.");
-                        continue;
                     }
+                    continue;
                 }
                 break;
             }
-            List<Book> results = new ArrayList<>(); // Found books
             // Search
-            switch (choice) {
-                case "1": // Search by title
-                    for (Book book : books) {
-                        if (book.title.toLowerCase().contains(searchValue.toLowerCase())) {
-                            results.add(book);
-                        }
-                    }
-                    break;
-                case "2": // Search by author
-                    for (Book book : books) {
-                        if (book.author.toLowerCase().contains(searchValue.toLowerCase())) {
-                            results.add(book);
-                        }
-                    }
-                    break;
+            // Found books, read a page at a time as they are shown
+            BookCursor found = books.cursor(searchValue, field);
+            if (!found.hasNext()) {
+                // Nothing exact: books with a typo or another spelling, best first
+                List<BookRecord> similar = choice.equals("1") ? books.searchTitleFuzzy(searchValue) : books.searchAuthorFuzzy(searchValue);
+                if (!similar.isEmpty()) System.out.println("\nТочных совпадений нет, показаны похожие.");
+                found = BookCursor.of(similar);
             }
+            BookCursor results = found;
             // Display search results
-            if (results.isEmpty()) {
+            if (!results.hasNext()) {
                 System.out.println("\nКниги не найдены!");
                 // Offer to retry
                 System.out.println("\nЧто вы хотите сделать?");
@@ -318,9 +521,8 @@ public class LibraryManager {
                     case "3": return; // Exit method
                 }
             } else {
-                System.out.println("\nНайдено книг: " + results.size());
-                System.out.println("--- Результаты поиска ---");
-                for (int i = 0; i < results.size(); i++) System.out.println((i + 1) + ". " + results.get(i));
+                System.out.println("\n--- Результаты поиска ---");
+                showPages(offset -> results.next(PAGE_SIZE), null);
             }
         }
     }
@@ -329,9 +531,9 @@ public class LibraryManager {
     private static void saveToFile() {
         System.out.print("Введите имя файла для сохранения: ");
         String filename = scanner.nextLine();
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            // Write each book to file
-            for (Book book : books) writer.println(book.title + ", " + book.author);
+        try {
+            // Format by extension: .tsv, .jsonl or "title, author" lines; .gz compresses
+            exporter.export(Path.of(filename), books);
             System.out.println("Данные успешно сохранены в файл.");
         } catch (IOException e) {
             System.out.println("Ошибка при сохранении файла: " + e.getMessage());
@@ -348,28 +550,49 @@ public class LibraryManager {
             System.out.println("Файл не существует!");
             return;
         }
-        List<Book> loadedBooks = new ArrayList<>(); // Temporary list for loaded books
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 2) {
-                    Book book = new Book(parts[0].trim(), parts[1].trim());
-                    loadedBooks.add(book);
+        history.begin("загрузка из файла"); // The whole import is undone at once
+        try {
+            // Large files report progress every 10%
+            int[] shown = {0};
+            CatalogImporter.Result result = CatalogImporter.importFile(file.toPath(), books, (done, total, imported) -> {
+                int percent = (int) (done * 100 / total);
+                if (total > CatalogImporter.CHUNK_SIZE && percent / 10 > shown[0] / 10) {
+                    shown[0] = percent;
+                    System.out.println("Загрузка: " + percent + "%");
                 }
-            }
-            books.addAll(loadedBooks);
+            });
             System.out.println("Данные успешно загружены из файла: " + filename);
-            System.out.println("Загружено книг: " + loadedBooks.size());
+            System.out.println("Загружено книг: " + result.imported);
+            if (result.skipped > 0) System.out.println("Пропущено строк с ошибками: " + result.skipped);
+            if (result.duplicates > 0) System.out.println(duplicatesText(result.duplicates));
             System.out.println("Всего книг в библиотеке: " + books.size());
         } catch (IOException e) {
             System.out.println("Ошибка при загрузке файла: " + e.getMessage());
+        } finally {
+            history.end();
         }
     }
 
+    private static boolean editable() {
+        if (readOnly) System.out.println("Каталог открыт только для просмотра: сохраненные данные не удалось загрузить.");
+        return !readOnly;
+    }
+
+    private static void undo() {
+        String step = history.undo();
+        if (step == null) System.out.println("Нечего отменять.");
+        else System.out.println("Отменено: " + step + ". Всего книг в библиотеке: " + books.size());
+    }
+
+    private static void redo() {
+        String step = history.redo();
+        if (step == null) System.out.println("Нечего возвращать.");
+        else System.out.println("Возвращено: " + step + ". Всего книг в библиотеке: " + books.size());
+    }
+
     // Method for asking about saving before exit
     private static void askToSaveBeforeExit() {
-        if (books.isEmpty()) {
+        if (books.isEmpty() || readOnly) {
             System.out.println("До свидания!");
             return;
         }
@@ -381,35 +604,64 @@ public class LibraryManager {
                 System.out.println("До свидания!");
                 break;
             } else if (answer.equals("нет") || answer.equals("н")) {
-                File file = new File(SERIALIZATION_FILE);
-                if (file.exists()) file.delete();
-                System.out.println("Данные не сохранены. До свидания!");
+                discardChanges();
+                System.out.println("До свидания!");
                 break;
             } else System.out.println("Пожалуйста, введите 'да' или 'нет'");
         }
     }
 
-    // Method for data serialization (saving to binary file)
+    // Changes are journaled as they are made; saving only waits until they are on disk
     private static void saveSerializedData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(SERIALIZATION_FILE))) {
-            oos.writeObject(books);
+        try {
+            store.flush();
             System.out.println("Данные успешно сохранены.");
         } catch (IOException e) {
             System.out.println("Ошибка при сохранении данных: " + e.getMessage());
         }
     }
 
+    // Drops the journaled changes of this session
+    private static void discardChanges() {
+        try {
+            if (store.discardSession()) System.out.println("Данные не сохранены.");
+            else System.out.println("Изменения, сделанные до автоматического сохранения каталога, остались сохранены; отменены только более поздние.");
+        } catch (IOException e) {
+            System.out.println("Ошибка при отмене изменений: " + e.getMessage());
+        }
+    }
+
     // Automatic data loading on startup
     private static void autoLoadSerializedData() {
-        File file = new File(SERIALIZATION_FILE);
-        if (!file.exists()) return;
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(SERIALIZATION_FILE))) {
-            @SuppressWarnings("unchecked") // annotation to suppress warnings
-            List<Book> loadedBooks = (List<Book>) ois.readObject();
-            books = loadedBooks;
+        try {
+            openCatalog();
+            if (books.isEmpty()) return;
             System.out.println("Автоматически загружено книг: " + books.size());
         } catch (IOException | ClassNotFoundException e) {
+            readOnly = true;
             System.out.println("Не удалось загрузить сохраненные данные: " + e.getMessage());
+            System.out.println("Каталог открыт только для просмотра: изменения не сохранялись бы.");
+        }
+    }
+
+    // Loads the catalog, first migrating library_data.ser if there is no catalog yet
+    private static void openCatalog() throws IOException, ClassNotFoundException {
+        CatalogEvent timing = Metrics.STARTUP.start();
+        if (!Files.exists(DATA_FILE) && new File(SERIALIZATION_FILE).exists()) migrateLegacyData();
+        store.open();
+        Metrics.STARTUP.stop(timing, DATA_FILE.toString(), books.size());
+    }
+
+    // One-time conversion of library_data.ser into the binary catalog; the old file is kept as .bak
+    private static void migrateLegacyData() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(SERIALIZATION_FILE))) {
+            @SuppressWarnings("unchecked") // annotation to suppress warnings
+            List<Book> loadedBooks = (List<Book>) ois.readObject();
+            books.clear();
+            for (Book book : loadedBooks) books.add(book.title, book.author);
         }
+        CatalogFile.write(DATA_FILE, books);
+        Path legacy = Path.of(SERIALIZATION_FILE);
+        Files.move(legacy, legacy.resolveSibling(SERIALIZATION_FILE + ".bak"), StandardCopyOption.REPLACE_EXISTING);
     }
 }
@@ -2,12 +2,19 @@ import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.ActionEvent;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 // Library Manager with Graphical User Interface
 public class LibraryManagerGUI {
+    // Serialized form of a book, kept so that library_data_GUI.ser files from earlier versions can be migrated
     static class Book implements Serializable {
         @Serial
         private static final long serialVersionUID = 1L;
@@ -17,26 +24,50 @@ public class LibraryManagerGUI {
             this.title = title;
             this.author = author;
         }
-        @Override
-        public String toString() {
-            return title + " - " + author;
-        }
     }
-    // Current list of books in the library
-    private static List<Book> books = new ArrayList<>();
-    // File for serialization, data storage
+    // Current books in the library
+    private static final BookRepository books = new BookRepository();
+    // File for data storage (binary catalog, see CatalogFile)
+    private static final Path DATA_FILE = Path.of("library_data_GUI.lbc");
+    // Java serialization file of earlier versions, migrated to DATA_FILE on first start
     private static final String SERIALIZATION_FILE = "library_data_GUI.ser";
+    // Journals every change next to DATA_FILE (see CatalogStore)
+    private static final CatalogStore store = new CatalogStore(DATA_FILE, books);
+    // Writes the text files of "Сохранить в файл"
+    private static final CatalogExporter exporter = new CatalogExporter();
+    // Undo and redo of the changes made in the window, once the catalog is loaded
+    private static CatalogHistory history;
     
     // Graphical interface
     private static JFrame mainFrame;
-    private static JList<String> bookList;
-    private static DefaultListModel<String> listModel;
+    private static JList<BookRecord> bookList;
+    private static BookListModel listModel;
+    // Buttons that change the catalog or work on all of it, disabled while it loads
+    private static final List<JButton> catalogButtons = new ArrayList<>();
+    // Those of them that only read the catalog, enabled again if it is opened read-only
+    private static final List<JButton> viewButtons = new ArrayList<>();
+    // Disabled while a step is undone or made again, so that only one runs at a time
+    private static JButton undoButton;
+    private static JButton redoButton;
+    // The catalog could not be opened: changes would not be saved, so none are allowed
+    private static boolean readOnly;
+    // Percent of the catalog loaded at startup, -1 once loading is over (EDT only)
+    private static int loadProgress = -1;
+    // How often the list takes in the books loaded so far, in milliseconds
+    private static final int LOAD_REFRESH_MS = 200;
+    // Groups of duplicates listed by the "Дубликаты" dialog; the rest are only counted
+    private static final int DUPLICATE_GROUPS_SHOWN = 1000;
+    // Background search for the search field
+    private static final SearchPipeline searchPipeline = new SearchPipeline(books, LibraryManagerGUI::showSearchResults, LibraryManagerGUI::appendSearchResults);
 
     public static void main(String[] args) {
-        // Load data on new startup
-        autoLoadSerializedData();
-        // Graphical interface
-        createAndShowGUI();
+        Metrics.watch(books);
+        // The window comes first and the catalog loads behind it, so it opens at once
+        // however large the catalog is
+        SwingUtilities.invokeLater(() -> {
+            createAndShowGUI();
+            autoLoadSerializedData();
+        });
     }
 
     private static void createAndShowGUI() {
@@ -54,22 +85,21 @@ public class LibraryManagerGUI {
         JPanel bottomPanel = new JPanel();
         bottomPanel.add(sortPanel);
         bottomPanel.add(searchPanel);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(bottomPanel, BorderLayout.CENTER);
+        southPanel.add(createStatusPanel(), BorderLayout.SOUTH);
         // Add panels to main window
         mainFrame.add(buttonPanel, BorderLayout.NORTH);
         mainFrame.add(displayPanel, BorderLayout.CENTER);
-        mainFrame.add(bottomPanel, BorderLayout.SOUTH);
+        mainFrame.add(southPanel, BorderLayout.SOUTH);
         mainFrame.setVisible(true);
         // Update book list
         refreshBookList();
     }
 
-    private static boolean isValidTitle(String title) {
-        String regex = "^[a-zA-Zа-яА-ЯёЁ0-9\\s?!+:;№\"'.,/-]+$";
-        return title.matches(regex);
-    }
-    private static boolean isValidAuthor(String author) {
-        String regex = "^[a-zA-Zа-яА-ЯёЁ\\s-.]+$";
-        return author.matches(regex);
+    private static String formatBook(BookRecord book) {
+        if (book == BookListModel.GONE) return "";
+        return book.title + " - " + book.author;
     }
 
     private static JPanel createButtonPanel() {
@@ -80,6 +110,9 @@ public class LibraryManagerGUI {
         JButton deleteButton = new JButton("Удалить");
         JButton saveButton = new JButton("Сохранить в файл");
         JButton loadButton = new JButton("Загрузить из файла");
+        JButton duplicatesButton = new JButton("Дубликаты");
+        undoButton = new JButton("Отменить");
+        redoButton = new JButton("Вернуть");
         JButton exitButton = new JButton("Выход");
         
         addButton.addActionListener(e -> addBook());
@@ -87,13 +120,37 @@ public class LibraryManagerGUI {
         deleteButton.addActionListener(e -> deleteBook());
         saveButton.addActionListener(e -> saveToFile());
         loadButton.addActionListener(e -> loadFromFile());
+        duplicatesButton.addActionListener(e -> showDuplicates());
+        undoButton.addActionListener(e -> undoOrRedo(true));
+        redoButton.addActionListener(e -> undoOrRedo(false));
         exitButton.addActionListener(e -> exitApplication());
+        catalogButtons.addAll(List.of(addButton, editButton, deleteButton, saveButton, loadButton, duplicatesButton, undoButton, redoButton));
+        viewButtons.addAll(List.of(saveButton, duplicatesButton));
+        // Ctrl+Z and Ctrl+Y anywhere in the window, doing nothing while the buttons are disabled
+        InputMap keys = mainFrame.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        keys.put(KeyStroke.getKeyStroke("control Z"), "undo");
+        keys.put(KeyStroke.getKeyStroke("control Y"), "redo");
+        mainFrame.getRootPane().getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undoButton.doClick();
+            }
+        });
+        mainFrame.getRootPane().getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redoButton.doClick();
+            }
+        });
         // Add buttons to panel
         panel.add(addButton);
         panel.add(editButton);
         panel.add(deleteButton);
         panel.add(saveButton);
         panel.add(loadButton);
+        panel.add(duplicatesButton);
+        panel.add(undoButton);
+        panel.add(redoButton);
         panel.add(exitButton);
         return panel;
     }
@@ -101,15 +158,25 @@ public class LibraryManagerGUI {
     private static JPanel createDisplayPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         // Book list on panel
-        listModel = new DefaultListModel<>();
+        listModel = new BookListModel(books);
         bookList = new JList<>(listModel);
         bookList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Rows are formatted only when painted; the prototype keeps JList from measuring every row
+        bookList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, formatBook((BookRecord) value), index, isSelected, cellHasFocus);
+            }
+        });
+        bookList.setPrototypeCellValue(new BookRecord(0, "Название книги средней длины для расчета ширины строки", "Имя и фамилия автора"));
         // Title
         JLabel listLabel = new JLabel("Список книг:");
         listLabel.setFont(new Font("Arial", Font.BOLD, 14));
         // Scroll
         JScrollPane scrollPane = new JScrollPane(bookList);
         scrollPane.setPreferredSize(new Dimension(500, 300));
+        // Search results are read a page at a time, the next one when the end comes into view
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> loadMoreIfNeeded());
         panel.add(listLabel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
         return panel;
@@ -120,11 +187,12 @@ public class LibraryManagerGUI {
         JLabel searchLabel = new JLabel("Поиск:");
         JTextField searchField = new JTextField(30);
         JButton searchButton = new JButton("Найти");
-        searchButton.addActionListener(e -> performSearch(searchField.getText()));
+        searchButton.addActionListener(e -> performSearch(searchField.getText(), true));
+        new CompletionPopup(books, searchField); // Suggestions under the field as the user types
         searchField.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) { performSearch(searchField.getText()); }
-            public void removeUpdate(DocumentEvent e) { performSearch(searchField.getText()); }
-            public void changedUpdate(DocumentEvent e) { performSearch(searchField.getText()); }
+            public void insertUpdate(DocumentEvent e) { performSearch(searchField.getText(), false); }
+            public void removeUpdate(DocumentEvent e) { performSearch(searchField.getText(), false); }
+            public void changedUpdate(DocumentEvent e) { performSearch(searchField.getText(), false); }
         });
         panel.add(searchLabel);
         panel.add(searchField);
@@ -134,18 +202,105 @@ public class LibraryManagerGUI {
 
     private static JPanel createSortPanel() {
         JPanel panel = new JPanel(new FlowLayout());
-        JButton sortButton = new JButton("Сортировка в алфавитном порядке по названию");
-        sortButton.addActionListener(e -> {books.sort((b1, b2) -> b1.title.compareToIgnoreCase(b2.title));
+        JLabel sortLabel = new JLabel("Сортировка:");
+        // Same order as BookRepository.Order
+        JComboBox<String> sortBox = new JComboBox<>(new String[] {"в порядке добавления", "по названию", "по автору"});
+        sortBox.addActionListener(e -> {
+            listModel.setOrder(BookRepository.Order.values()[sortBox.getSelectedIndex()]);
             refreshBookList();
         });
-        panel.add(sortButton);
+        panel.add(sortLabel);
+        panel.add(sortBox);
         return panel;
     }
 
+    // Status bar: catalog size, search latency, memory and search cache, updated every
+    // second; the button shows all the metrics
+    private static JPanel createStatusPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        JLabel status = new JLabel(statusText());
+        JButton metricsButton = new JButton("Метрики");
+        metricsButton.addActionListener(e -> showMetrics());
+        panel.add(status, BorderLayout.CENTER);
+        panel.add(metricsButton, BorderLayout.EAST);
+        new Timer(1000, e -> status.setText(statusText())).start();
+        return panel;
+    }
+
+    private static String statusText() {
+        int size = books.size();
+        long heap = Metrics.usedHeap();
+        String memory = heap / (1024 * 1024) + " МБ" + (size > 0 ? " (" + heap / size + " Б/книга)" : "");
+        String search = "—";
+        if (!Metrics.ENABLED) search = "метрики отключены";
+        else if (Metrics.GUI_SEARCH.count() > 0) {
+            search = String.format("%.1f / %.1f мс", Metrics.GUI_SEARCH.percentile(0.5) / 1e6, Metrics.GUI_SEARCH.percentile(0.99) / 1e6);
+        }
+        QueryCache.Stats cache = books.cacheStats();
+        return String.format("Книг: %d   Поиск p50 / p99: %s   Память: %s   Кэш поиска: %.0f%%", size, search, memory, cache.hitRate() * 100);
+    }
+
+    private static void showMetrics() {
+        JTextArea text = new JTextArea(Metrics.text(), 24, 72);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        text.setEditable(false);
+        JOptionPane.showMessageDialog(mainFrame, new JScrollPane(text), "Метрики", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    // Groups of books with the same title and author up to case, spaces and ё; found off
+    // the EDT, as it reads the whole catalog
+    private static void showDuplicates() {
+        new SwingWorker<List<List<BookRecord>>, Void>() {
+            @Override
+            protected List<List<BookRecord>> doInBackground() {
+                return books.duplicates();
+            }
+
+            @Override
+            protected void done() {
+                List<List<BookRecord>> groups;
+                try {
+                    groups = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(mainFrame, "Ошибка при поиске дубликатов: " + cause.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (groups.isEmpty()) {
+                    JOptionPane.showMessageDialog(mainFrame, "Дубликатов нет.");
+                    return;
+                }
+                StringBuilder report = new StringBuilder();
+                int extra = 0;
+                for (int i = 0; i < groups.size(); i++) {
+                    extra += groups.get(i).size() - 1;
+                    if (i >= DUPLICATE_GROUPS_SHOWN) continue;
+                    report.append("Группа ").append(i + 1).append(":\n");
+                    for (BookRecord book : groups.get(i)) report.append("    ").append(formatBook(book)).append('\n');
+                }
+                if (groups.size() > DUPLICATE_GROUPS_SHOWN) report.append("... и еще групп: ").append(groups.size() - DUPLICATE_GROUPS_SHOWN).append('\n');
+                report.insert(0, "Групп: " + groups.size() + ", лишних книг: " + extra + "\n\n");
+                JTextArea text = new JTextArea(report.toString(), 24, 72);
+                text.setEditable(false);
+                text.setCaretPosition(0);
+                JOptionPane.showMessageDialog(mainFrame, new JScrollPane(text), "Дубликаты", JOptionPane.PLAIN_MESSAGE);
+            }
+        }.execute();
+    }
+
     private static void refreshBookList() {
-        listModel.clear();
-        for (Book book : books) listModel.addElement(book.toString());
-        mainFrame.setTitle("Менеджер библиотеки - Книг в библиотеке: " + books.size());
+        CatalogEvent timing = Metrics.GUI_REFRESH.start();
+        listModel.showAll();
+        updateTitle();
+        Metrics.GUI_REFRESH.stop(timing);
+    }
+
+    // Book count in the title, with the progress while the catalog loads
+    private static void updateTitle() {
+        if (loadProgress >= 0) mainFrame.setTitle("Менеджер библиотеки - Загрузка " + loadProgress + "%, книг: " + books.size());
+        else if (readOnly) mainFrame.setTitle("Менеджер библиотеки (только просмотр) - Книг в библиотеке: " + books.size());
+        else mainFrame.setTitle("Менеджер библиотеки - Книг в библиотеке: " + books.size());
     }
 
     private static void addBook() {
@@ -166,27 +321,37 @@ public class LibraryManagerGUI {
                 JOptionPane.showMessageDialog(mainFrame, "Вы ничего не ввели!", "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            if (!isValidTitle(title)) {
+            if (!BookValidator.isValidTitle(title)) {
                 JOptionPane.showMessageDialog(mainFrame, "Название книги содержит недопустимые символы!", "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            if (!isValidAuthor(author)) {
+            if (!BookValidator.isValidAuthor(author)) {
                 JOptionPane.showMessageDialog(mainFrame, "Имя автора содержит недопустимые символы!", "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            books.add(new Book(title, author));
+            BookRecord existing = books.findDuplicate(title, author);
+            if (existing != null && JOptionPane.showConfirmDialog(mainFrame, "Такая книга уже есть: " + formatBook(existing) + "\nВсе равно добавить?",
+                    "Дубликат", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+                return;
+            }
+            books.add(title, author);
             refreshBookList();
             JOptionPane.showMessageDialog(mainFrame, "Книга добавлена!");
         }
     }
 
+    // Selected book as currently stored, or null if nothing is selected
+    private static BookRecord selectedBook() {
+        BookRecord selected = bookList.getSelectedValue();
+        return selected == null ? null : books.get(selected.id);
+    }
+
     private static void editBook() {
-        int selectedIndex = bookList.getSelectedIndex();
-        if (selectedIndex == -1) {
+        BookRecord book = selectedBook();
+        if (book == null) {
             JOptionPane.showMessageDialog(mainFrame, "Выберите книгу для редактирования!", "Ошибка", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        Book book = books.get(selectedIndex);
         JTextField titleField = new JTextField(book.title, 20);
         JTextField authorField = new JTextField(book.author, 20);
         JPanel inputPanel = new JPanel(new GridLayout(2, 2, 5, 5));
@@ -204,53 +369,64 @@ public class LibraryManagerGUI {
                 JOptionPane.showMessageDialog(mainFrame, "Вы ничего не ввели!", "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            if (!isValidTitle(newTitle)) {
+            if (!BookValidator.isValidTitle(newTitle)) {
                 JOptionPane.showMessageDialog(mainFrame, "Название содержит недопустимые символы!", "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            if (!isValidAuthor(newAuthor)) {
+            if (!BookValidator.isValidAuthor(newAuthor)) {
                 JOptionPane.showMessageDialog(mainFrame, "Имя автора содержит недопустимые символы!", "Ошибка", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            book.title = newTitle;
-            book.author = newAuthor;
+            books.update(book.id, newTitle, newAuthor);
             refreshBookList();
             JOptionPane.showMessageDialog(mainFrame, "Изменения внесены!");
         }
     }
 
     private static void deleteBook() {
-        int selectedIndex = bookList.getSelectedIndex();
-        if (selectedIndex == -1) {
+        BookRecord book = selectedBook();
+        if (book == null) {
             JOptionPane.showMessageDialog(mainFrame, "Выберите книгу для удаления!", "Ошибка", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        Book book = books.get(selectedIndex);
         int choice = JOptionPane.showConfirmDialog(mainFrame, "Вы уверены, что хотите удалить книгу:\n" + book.title + " - " + book.author + "?", "Подтверждение удаления", JOptionPane.YES_NO_OPTION);
         if (choice == JOptionPane.YES_OPTION) {
-            books.remove(selectedIndex);
+            books.remove(book.id);
             refreshBookList();
             JOptionPane.showMessageDialog(mainFrame, "Книга удалена!");
         }
     }
 
-    private static void performSearch(String searchText) {
+    // Typing is debounced, the search button runs the query immediately
+    private static void performSearch(String searchText, boolean immediately) {
         if (searchText.isEmpty()) {
+            searchPipeline.cancel();
             refreshBookList();
             return;
         }
-        List<Book> results = new ArrayList<>();
-        for (Book book : books) {
-            if (book.title.toLowerCase().contains(searchText.toLowerCase()) ||
-                    book.author.toLowerCase().contains(searchText.toLowerCase())) {
-                results.add(book);
-            }
-        }
-        // Update list with matching results
-        listModel.clear();
-        for (Book book : results) {
-            listModel.addElement(book.toString());
-        }
+        if (immediately) searchPipeline.submitNow(searchText);
+        else searchPipeline.submit(searchText);
+    }
+
+    // Called on the EDT when a background search finishes
+    private static void showSearchResults(String searchText, List<BookRecord> results) {
+        // Update list with the first page of matching results in one batch
+        listModel.showResults(results);
+        loadMoreIfNeeded();
+    }
+
+    // Called on the EDT with each further page of the results
+    private static void appendSearchResults(List<BookRecord> page) {
+        listModel.append(page);
+        loadMoreIfNeeded();
+    }
+
+    // Asks for the next page of search results once the last rows are in view, also when
+    // the first pages do not fill the list
+    private static void loadMoreIfNeeded() {
+        if (!listModel.isFiltered()) return;
+        int size = listModel.getSize();
+        if (size == 0 || bookList.getLastVisibleIndex() >= size - 1 - SearchPipeline.PAGE_SIZE / 2) searchPipeline.more();
     }
 
     private static void saveToFile() {
@@ -258,12 +434,26 @@ public class LibraryManagerGUI {
         fileChooser.setDialogTitle("Сохранить библиотеку");
         if (fileChooser.showSaveDialog(mainFrame) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
-                for (Book book : books) writer.println(book.title + ", " + book.author);
-                JOptionPane.showMessageDialog(mainFrame, "Данные успешно сохранены в файл.");
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(mainFrame, "Ошибка при сохранении: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-            }
+            // Writes the catalog as it is now off the EDT; edits made meanwhile are not in the file
+            BookRepository.Snapshot snapshot = books.snapshot();
+            new SwingWorker<Long, Void>() {
+                @Override
+                protected Long doInBackground() throws IOException {
+                    // Format by extension: .tsv, .jsonl or "title, author" lines; .gz compresses
+                    return exporter.export(file.toPath(), snapshot);
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        get();
+                        JOptionPane.showMessageDialog(mainFrame, "Данные успешно сохранены в файл.");
+                    } catch (InterruptedException | ExecutionException e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        JOptionPane.showMessageDialog(mainFrame, "Ошибка при сохранении: " + cause.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
         }
     }
 
@@ -272,47 +462,178 @@ public class LibraryManagerGUI {
         fileChooser.setDialogTitle("Загрузить библиотеку");
         if (fileChooser.showOpenDialog(mainFrame) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            List<Book> loadedBooks = new ArrayList<>();
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] parts = line.split(",");
-                    if (parts.length == 2) loadedBooks.add(new Book(parts[0].trim(), parts[1].trim()));
+            ProgressMonitor monitor = new ProgressMonitor(mainFrame, "Загрузка книг из файла", file.getName(), 0, 100);
+            // The import runs off the EDT; cancelling interrupts it between batches
+            SwingWorker<CatalogImporter.Result, Void> worker = new SwingWorker<>() {
+                @Override
+                protected CatalogImporter.Result doInBackground() throws IOException {
+                    history.begin("загрузка из файла"); // The whole import is undone at once
+                    try {
+                        return CatalogImporter.importFile(file.toPath(), books,
+                                (done, total, imported) -> setProgress((int) (done * 100 / Math.max(total, 1))));
+                    } finally {
+                        history.end();
+                    }
+                }
+
+                @Override
+                protected void done() {
+                    monitor.close();
+                    refreshBookList();
+                    try {
+                        CatalogImporter.Result result = get();
+                        String message = "Загружено книг: " + result.imported;
+                        if (result.duplicates > 0) {
+                            message += BookRepository.DEFAULT_DUPLICATES == BookRepository.Duplicates.MERGE
+                                    ? "\nОбъединено с уже имеющимися книгами: " + result.duplicates
+                                    : "\nПропущено книг, которые уже есть в библиотеке: " + result.duplicates;
+                        }
+                        JOptionPane.showMessageDialog(mainFrame, message);
+                    } catch (CancellationException e) {
+                        JOptionPane.showMessageDialog(mainFrame, "Загрузка прервана. Всего книг: " + books.size());
+                    } catch (InterruptedException | ExecutionException e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        JOptionPane.showMessageDialog(mainFrame, "Ошибка при загрузке: " + cause.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                    }
                 }
-                books.addAll(loadedBooks);
+            };
+            worker.addPropertyChangeListener(event -> {
+                if (monitor.isCanceled()) worker.cancel(true);
+                else if ("progress".equals(event.getPropertyName())) monitor.setProgress((Integer) event.getNewValue());
+            });
+            worker.execute();
+        }
+    }
+    // Reverts or makes again the latest step off the EDT, as undoing an import changes
+    // every book it added
+    private static void undoOrRedo(boolean undo) {
+        undoButton.setEnabled(false);
+        redoButton.setEnabled(false);
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() {
+                return undo ? history.undo() : history.redo();
+            }
+
+            @Override
+            protected void done() {
+                undoButton.setEnabled(true);
+                redoButton.setEnabled(true);
                 refreshBookList();
-                JOptionPane.showMessageDialog(mainFrame, "Загружено книг: " + loadedBooks.size());
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(mainFrame, "Ошибка при загрузке: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                try {
+                    if (get() == null) JOptionPane.showMessageDialog(mainFrame, undo ? "Нечего отменять." : "Нечего возвращать.");
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(mainFrame, "Ошибка при отмене: " + cause.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                }
             }
-        }
+        }.execute();
     }
+
     private static void exitApplication() {
-        if (!books.isEmpty()) {
+        // Nothing can have changed while loading, and the journal is not open yet
+        if (loadProgress < 0 && !readOnly && !books.isEmpty()) {
             int result = JOptionPane.showConfirmDialog(mainFrame, "Сохранить данные перед выходом?", "Выход", JOptionPane.YES_NO_CANCEL_OPTION);
-            if (result == JOptionPane.YES_OPTION) saveSerializedData(); // Save data using serialization
+            if (result == JOptionPane.YES_OPTION) saveSerializedData(); // Wait until the journal is on disk
+            else if (result == JOptionPane.NO_OPTION) discardChanges();
             else if (result == JOptionPane.CANCEL_OPTION) return;
         }
         System.exit(0);
     }
 
     private static void saveSerializedData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(SERIALIZATION_FILE))) {
-            oos.writeObject(books);
+        try {
+            store.flush();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(mainFrame, "Ошибка при сохранении: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
         }
     }
 
+    // Drops the journaled changes of this session
+    private static void discardChanges() {
+        try {
+            if (!store.discardSession()) JOptionPane.showMessageDialog(mainFrame, "Изменения, сделанные до автоматического сохранения каталога, остались сохранены; отменены только более поздние.");
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(mainFrame, "Ошибка при отмене изменений: " + e.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // Loads the catalog off the EDT, once the window is up. The books show up in the list
+    // as they are loaded and the title shows the progress; the buttons that change the
+    // catalog stay disabled until the journal is open, so no change can get lost, and
+    // stay so if it fails to open (see loadFailed).
     private static void autoLoadSerializedData() {
-        File file = new File(SERIALIZATION_FILE);
-        if (!file.exists()) return;
+        loadProgress = 0;
+        for (JButton button : catalogButtons) button.setEnabled(false);
+        updateTitle();
+        Timer refresh = new Timer(LOAD_REFRESH_MS, e -> {
+            listModel.showAdded();
+            updateTitle();
+        });
+        SwingWorker<Void, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Void doInBackground() throws IOException, ClassNotFoundException {
+                CatalogEvent timing = Metrics.STARTUP.start();
+                CatalogFile.Progress progress = (loaded, total) -> setProgress((int) (loaded * 100 / Math.max(total, 1)));
+                if (!Files.exists(DATA_FILE) && new File(SERIALIZATION_FILE).exists()) migrateLegacyData();
+                store.open(progress);
+                Metrics.STARTUP.stop(timing, DATA_FILE.toString(), books.size());
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                refresh.stop();
+                loadProgress = -1;
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    loadFailed(e.getCause() != null ? e.getCause() : e);
+                    return;
+                }
+                history = new CatalogHistory(books);
+                for (JButton button : catalogButtons) button.setEnabled(true);
+                if (!listModel.isFiltered()) refreshBookList();
+                else updateTitle();
+            }
+        };
+        worker.addPropertyChangeListener(event -> {
+            // Progress events can still come in after done()
+            if ("progress".equals(event.getPropertyName()) && !worker.isDone()) loadProgress = (Integer) event.getNewValue();
+        });
+        refresh.start();
+        worker.execute();
+    }
+
+    // The catalog could not be opened, so changes would not be saved: the user loads it
+    // again or keeps the books read so far for viewing, with only viewButtons enabled
+    private static void loadFailed(Throwable cause) {
+        Object[] options = {"Повторить", "Только просмотр"};
+        int choice = JOptionPane.showOptionDialog(mainFrame, "Ошибка при загрузке данных: " + cause.getMessage() + "\nБез загрузки изменения не будут сохраняться.",
+                "Ошибка загрузки", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE, null, options, options[0]);
+        if (choice == 0) {
+            books.clear(); // The books read before the failure
+            autoLoadSerializedData();
+            return;
+        }
+        readOnly = true;
+        for (JButton button : viewButtons) button.setEnabled(true);
+        if (!listModel.isFiltered()) refreshBookList();
+        else updateTitle();
+    }
+
+    // One-time conversion of library_data_GUI.ser into the binary catalog; the old file is kept as .bak.
+    // The file is one serialized list that can only be read whole, so it is converted on
+    // the side and the new catalog then loads like any other.
+    private static void migrateLegacyData() throws IOException, ClassNotFoundException {
+        BookRepository converted = new BookRepository();
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(SERIALIZATION_FILE))) {
             @SuppressWarnings("unchecked") // annotation to suppress warnings
             List<Book> loadedBooks = (List<Book>) ois.readObject();
-            books = loadedBooks;
-        } catch (IOException | ClassNotFoundException e) {
-            JOptionPane.showMessageDialog(mainFrame, "Ошибка при сохранении данных: " + e.getMessage(), "Ошибка загрузки", JOptionPane.ERROR_MESSAGE);
+            for (Book book : loadedBooks) converted.add(book.title, book.author);
         }
+        CatalogFile.write(DATA_FILE, converted);
+        Path legacy = Path.of(SERIALIZATION_FILE);
+        Files.move(legacy, legacy.resolveSibling(SERIALIZATION_FILE + ".bak"), StandardCopyOption.REPLACE_EXISTING);
     }
 }
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Read-only view of a version 2 or 3 catalog file (see CatalogFile) mapped into memory.
+// Opening reads only the header and the author dictionary; a book is decoded
+// from its table entry when get() is called, and shares the author's String. Only absolute reads are used,
+// so the view can be shared between threads.
+final class MappedCatalog {
+    final int count;
+    final long nextId;
+    final long sequence; // Last journal record included in the snapshot
+    private final MappedByteBuffer map;
+    private final String[] authors;
+    private final int table;
+    private final int idIndex; // 0 when the table is ordered by id
+
+    private MappedCatalog(MappedByteBuffer map, int count, long nextId, long sequence, String[] authors, int table, int idIndex) {
+        this.map = map;
+        this.count = count;
+        this.nextId = nextId;
+        this.sequence = sequence;
+        this.authors = authors;
+        this.table = table;
+        this.idIndex = idIndex;
+    }
+
+    static MappedCatalog open(Path file) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Catalog file is too large to be mapped: " + file);
+            if (size < CatalogFile.HEADER_SIZE_V2 + 4) throw new IOException("Not a library catalog file: " + file);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size); // The mapping outlives the channel
+        }
+        int version = map.getInt(4);
+        if (map.getInt(0) != CatalogFile.MAGIC || version < 2 || version > CatalogFile.VERSION) throw new IOException("Not a library catalog file: " + file);
+        int headerSize = version == 2 ? CatalogFile.HEADER_SIZE_V2 : CatalogFile.HEADER_SIZE;
+        int count = map.getInt(8);
+        long nextId = map.getLong(12);
+        int authorCount = map.getInt(20);
+        int flags = map.getInt(24);
+        long table = map.getLong(28);
+        long idIndex = map.getLong(36);
+        long sequence = version == 2 ? 0 : map.getLong(44);
+        long payload = map.capacity() - 4;
+        long tableEnd = table + (long) count * CatalogFile.TABLE_ENTRY_SIZE;
+        boolean ascending = (flags & CatalogFile.FLAG_IDS_ASCENDING) != 0;
+        if (count < 0 || authorCount < 0 || table < headerSize || tableEnd > payload
+                || (ascending ? idIndex != 0 : idIndex != tableEnd || idIndex + 4L * count != payload)
+                || (ascending && tableEnd != payload)) {
+            throw new IOException("Corrupted catalog file: " + file);
+        }
+        String[] authors = new String[authorCount];
+        int[] position = {headerSize};
+        try {
+            for (int i = 0; i < authorCount; i++) authors[i] = readString(map, position, (int) table);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return new MappedCatalog(map, count, nextId, sequence, authors, (int) table, (int) idIndex);
+    }
+
+    // Id of the book at the given display position
+    long idAt(int position) {
+        return map.getLong(table + position * CatalogFile.TABLE_ENTRY_SIZE);
+    }
+
+    // Decodes the book at the given display position
+    BookRecord get(int position) {
+        if (position < 0 || position >= count) throw new IndexOutOfBoundsException("Position: " + position + ", count: " + count);
+        int entry = table + position * CatalogFile.TABLE_ENTRY_SIZE;
+        long offset = map.getLong(entry + 8);
+        if (offset < CatalogFile.HEADER_SIZE_V2 || offset >= table) throw new IllegalStateException("Corrupted catalog entry at position " + position);
+        int[] at = {(int) offset};
+        long author = readVarLong(map, at, table);
+        if (author >= authors.length) throw new IllegalStateException("Corrupted catalog entry at position " + position);
+        return new BookRecord(map.getLong(entry), readString(map, at, table), (int) author, authors[(int) author]);
+    }
+
+    // Size of the author table; a book's authorId is its index in the table
+    int authorCount() {
+        return authors.length;
+    }
+
+    String author(int index) {
+        return authors[index];
+    }
+
+    // Display position of the book with the given id, or -1; O(log n)
+    int positionOf(long id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = idIndex == 0 ? mid : map.getInt(idIndex + mid * 4);
+            long midId = idAt(position);
+            if (midId < id) low = mid + 1;
+            else if (midId > id) high = mid - 1;
+            else return position;
+        }
+        return -1;
+    }
+
+    // Recomputes the CRC32 of the whole file; reads every page once
+    boolean verifyChecksum() {
+        int payload = map.capacity() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(map.duplicate().position(0).limit(payload));
+        return map.getInt(payload) == (int) crc.getValue();
+    }
+
+    private static long readVarLong(ByteBuffer map, int[] at, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && at[0] < end; shift += 7) {
+            byte b = map.get(at[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Corrupted catalog file: bad number at " + at[0]);
+    }
+
+    private static String readString(ByteBuffer map, int[] at, int end) {
+        long length = readVarLong(map, at, end);
+        if (length > end - at[0]) throw new IllegalStateException("Corrupted catalog file: bad string length at " + at[0]);
+        byte[] bytes = new byte[(int) length];
+        map.get(at[0], bytes);
+        at[0] += (int) length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters and latency histograms of the catalog operations and I/O paths, for both
+// front-ends and the HTTP server. A timed operation goes
+//
+//   CatalogEvent timing = Metrics.SEARCH.start();
+//   ...
+//   Metrics.SEARCH.stop(timing, query, found);
+//
+// which adds its duration to the timer's histogram and, while a Flight Recorder recording
+// is on, records a CatalogEvent. Everything is LongAdders, so threads do not contend, and
+// reading costs nothing on the timed paths. An operation pays two System.nanoTime() calls
+// and a few uncontended adds, well under a microsecond; with -Dlibrary.metrics=off
+// start() returns null and stop() returns at once.
+//
+// text() and json() dump everything; -Dlibrary.metrics.dump=FILE writes the dump every
+// -Dlibrary.metrics.interval seconds (60 by default), as JSON if FILE ends in .json.
+final class Metrics {
+    static final boolean ENABLED = !System.getProperty("library.metrics", "on").equalsIgnoreCase("off");
+
+    private static final List<Timer> timers = new CopyOnWriteArrayList<>();
+    private static final List<Counter> counters = new CopyOnWriteArrayList<>();
+    private static final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private static ScheduledExecutorService dumper;
+
+    static final Timer ADD = timer("catalog.add");
+    static final Timer ADD_ALL = timer("catalog.addAll");
+    static final Timer UPDATE = timer("catalog.update");
+    static final Timer REMOVE = timer("catalog.remove");
+    static final Timer SORT = timer("catalog.sort");
+    static final Timer ATTACH = timer("catalog.attach");
+    static final Timer PAGE = timer("catalog.page");
+    static final Timer DUPLICATES = timer("catalog.duplicates"); // The duplicates report
+    static final Timer SEARCH = timer("search.open"); // Index lookup of a substring search
+    static final Timer SEARCH_PAGE = timer("search.page"); // Reading matches from a cursor
+    static final Timer SEARCH_FUZZY = timer("search.fuzzy");
+    static final Timer COMPLETE = timer("search.complete"); // Autocomplete of a prefix
+    static final Timer FILE_WRITE = timer("file.write");
+    static final Timer FILE_READ = timer("file.read");
+    static final Timer FILE_OPEN = timer("file.open"); // Mapping a catalog without decoding it
+    static final Timer JOURNAL_WRITE = timer("journal.write");
+    static final Timer JOURNAL_REPLAY = timer("journal.replay");
+    static final Timer EXPORT = timer("export");
+    static final Timer IMPORT = timer("import");
+    static final Timer STARTUP = timer("startup.load");
+    static final Timer GUI_SEARCH = timer("gui.search"); // From the query to its first page on screen
+    static final Timer GUI_REFRESH = timer("gui.refresh");
+    static final Timer HTTP = timer("http.request");
+
+    static final Counter JOURNAL_RECORDS = counter("journal.records");
+    static final Counter SEARCH_BOOKS = counter("search.books"); // Books returned by searches
+
+    private Metrics() {
+    }
+
+    private static Timer timer(String name) {
+        Timer timer = new Timer(name);
+        timers.add(timer);
+        return timer;
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    // Value read at dump time; a gauge of the same name is replaced
+    static synchronized void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Gauges of the catalog a front-end works on, and the periodic dump if one is configured
+    static void watch(BookRepository books) {
+        gauge("books", books::size);
+        gauge("heap.used", Metrics::usedHeap);
+        gauge("heap.perBook", () -> {
+            int size = books.size();
+            return size == 0 ? 0 : usedHeap() / size;
+        });
+        gauge("cache.hits", () -> books.cacheStats().hits);
+        gauge("cache.misses", () -> books.cacheStats().misses);
+        gauge("cache.entries", () -> books.cacheStats().entries);
+        String file = System.getProperty("library.metrics.dump");
+        if (file != null && !file.isEmpty()) startDump(Path.of(file), Long.getLong("library.metrics.interval", 60));
+    }
+
+    // Writes the dump to the file every given number of seconds, replacing it as a whole
+    static synchronized void startDump(Path file, long seconds) {
+        if (dumper != null) dumper.shutdownNow();
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean json = file.getFileName().toString().endsWith(".json");
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.writeString(temporary, json ? json() : text(), StandardCharsets.UTF_8);
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Не удалось записать метрики: " + e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // One line per timer that has run, counter and gauge, durations in milliseconds
+    static String text() {
+        StringBuilder text = new StringBuilder();
+        if (!ENABLED) text.append("Метрики отключены (-Dlibrary.metrics=off)\n");
+        text.append(String.format(Locale.ROOT, "%-16s %10s %10s %10s %10s %10s%n", "operation", "count", "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (Timer timer : timers) {
+            long count = timer.count();
+            if (count == 0) continue;
+            text.append(String.format(Locale.ROOT, "%-16s %10d %10.3f %10.3f %10.3f %10.3f%n", timer.name, count,
+                    millis(timer.totalNanos() / count), millis(timer.percentile(0.5)), millis(timer.percentile(0.99)), millis(timer.maxNanos())));
+        }
+        for (Counter counter : counters) text.append(String.format(Locale.ROOT, "%-16s %10d%n", counter.name, counter.value()));
+        for (Map.Entry<String, LongSupplier> gauge : gauges().entrySet()) {
+            text.append(String.format(Locale.ROOT, "%-16s %10d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+        }
+        return text.toString();
+    }
+
+    // {"enabled":true,"timers":{"search.open":{"count":N,"meanMs":..,"p50Ms":..,"p99Ms":..,"maxMs":..},...},
+    //  "counters":{...},"gauges":{...}}
+    static String json() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"enabled\":").append(ENABLED).append(",\"timers\":{");
+        String separator = "";
+        for (Timer timer : timers) {
+            long count = timer.count();
+            json.append(separator).append('"').append(timer.name).append("\":{\"count\":").append(count);
+            if (count > 0) {
+                json.append(String.format(Locale.ROOT, ",\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f",
+                        millis(timer.totalNanos() / count), millis(timer.percentile(0.5)), millis(timer.percentile(0.99)), millis(timer.maxNanos())));
+            }
+            json.append('}');
+            separator = ",";
+        }
+        json.append("},\"counters\":{");
+        separator = "";
+        for (Counter counter : counters) {
+            json.append(separator).append('"').append(counter.name).append("\":").append(counter.value());
+            separator = ",";
+        }
+        json.append("},\"gauges\":{");
+        separator = "";
+        for (Map.Entry<String, LongSupplier> gauge : gauges().entrySet()) {
+            json.append(separator).append('"').append(gauge.getKey()).append("\":").append(gauge.getValue().getAsLong());
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private static synchronized Map<String, LongSupplier> gauges() {
+        return new LinkedHashMap<>(gauges);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    // Latency histogram of one operation. Buckets split each power of two of nanoseconds
+    // in four, so a percentile is off by at most a quarter of its value.
+    static final class Timer {
+        private static final int BUCKETS = 248; // Up to 2^62 ns
+
+        final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        private Timer(String name) {
+            this.name = name;
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        // Start of an operation, or null if metrics are off
+        CatalogEvent start() {
+            if (!ENABLED) return null;
+            CatalogEvent event = new CatalogEvent();
+            event.operation = name;
+            event.begin();
+            event.startNanos = System.nanoTime();
+            return event;
+        }
+
+        void stop(CatalogEvent event) {
+            stop(event, null, 0);
+        }
+
+        // End of the operation started by start(); the detail and the book count go into
+        // the Flight Recorder event only
+        void stop(CatalogEvent event, String detail, long books) {
+            if (event == null) return;
+            record(System.nanoTime() - event.startNanos);
+            event.end();
+            if (event.shouldCommit()) {
+                event.detail = detail;
+                event.books = books;
+                event.commit();
+            }
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[bucket(nanos)].increment();
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long totalNanos() {
+            return totalNanos.sum();
+        }
+
+        long maxNanos() {
+            return maxNanos.get();
+        }
+
+        // Upper end of the bucket holding the given share of the durations
+        long percentile(double share) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += counts[i] = buckets[i].sum();
+            long rank = (long) Math.ceil(share * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(upperEnd(i), maxNanos());
+            }
+            return 0;
+        }
+
+        static int bucket(long nanos) {
+            if (nanos < 4) return (int) Math.max(nanos, 0);
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int quarter = (int) (nanos >>> (exponent - 2)) & 3;
+            return (exponent - 1) * 4 + quarter;
+        }
+
+        static long upperEnd(int bucket) {
+            if (bucket < 4) return bucket;
+            int exponent = bucket / 4 + 1;
+            return ((4L + bucket % 4 + 1) << (exponent - 2)) - 1;
+        }
+    }
+
+    static final class Counter {
+        final String name;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        void add(long amount) {
+            if (ENABLED) value.add(amount);
+        }
+
+        long value() {
+            return value.sum();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.*;
+
+// Inverted index from the character n-grams of lower-cased texts to the ids they were
+// added under: book ids for titles, AuthorDictionary entries for author names.
+// A substring query only has to intersect the postings of its own n-grams;
+// the candidates are then checked with contains() by the caller.
+final class NGramIndex {
+    // Grams are packed into a long key, 16 bits per char
+    static final int MAX_GRAM = 4;
+
+    private final int n;
+    // Open-addressing table from packed gram to postings; emptied lists stay until clear()
+    private long[] keys = new long[1024];
+    private IdList[] postings = new IdList[1024];
+    private int grams;
+
+    NGramIndex(int n) {
+        if (n < 1 || n > MAX_GRAM) throw new IllegalArgumentException("Gram length must be between 1 and " + MAX_GRAM + ": " + n);
+        this.n = n;
+    }
+
+    // Lower-cased text the index and the substring check work on
+    static String fold(String text) {
+        return text.toLowerCase();
+    }
+
+    void add(long id, String text) {
+        text = fold(text);
+        for (int i = 0; i + n <= text.length(); i++) {
+            long key = gram(text, i);
+            int slot = slot(key);
+            if (postings[slot] == null) {
+                keys[slot] = key;
+                postings[slot] = new IdList();
+                if (++grams * 2 > keys.length) {
+                    resize();
+                    slot = slot(key);
+                }
+            }
+            postings[slot].add(id);
+        }
+    }
+
+    void remove(long id, String text) {
+        text = fold(text);
+        for (int i = 0; i + n <= text.length(); i++) {
+            IdList ids = postings[slot(gram(text, i))];
+            if (ids != null) ids.remove(id);
+        }
+    }
+
+    void clear() {
+        keys = new long[1024];
+        postings = new IdList[1024];
+        grams = 0;
+    }
+
+    // Whether queries of this (already folded) length can be answered from the index
+    boolean covers(String foldedQuery) {
+        return foldedQuery.length() >= n;
+    }
+
+    // Upper bound on the number of candidates of the folded query: the length of its
+    // shortest posting list, found without intersecting anything
+    int estimate(String foldedQuery) {
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i + n <= foldedQuery.length(); i++) {
+            IdList ids = postings[slot(gram(foldedQuery, i))];
+            estimate = Math.min(estimate, ids == null ? 0 : ids.size());
+        }
+        return estimate;
+    }
+
+    // Sorted ids whose text may contain the folded query; every real match is included
+    long[] candidates(String foldedQuery) {
+        List<IdList> lists = new ArrayList<>();
+        for (int i = 0; i + n <= foldedQuery.length(); i++) {
+            IdList ids = postings[slot(gram(foldedQuery, i))];
+            if (ids == null || ids.size() == 0) return new long[0];
+            if (!lists.contains(ids)) lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(IdList::size));
+        // Intersect starting from the shortest list, probing the longer ones by binary search
+        long[] result = lists.get(0).toArray();
+        int count = result.length;
+        for (int l = 1; l < lists.size() && count > 0; l++) {
+            IdList other = lists.get(l);
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count; i++) {
+                int at = other.find(result[i], from);
+                if (at >= 0) {
+                    result[kept++] = result[i];
+                    from = at + 1;
+                } else from = -at - 1;
+            }
+            count = kept;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private long gram(String text, int from) {
+        long key = 0;
+        for (int i = from; i < from + n; i++) key = (key << 16) | text.charAt(i);
+        return key;
+    }
+
+    // Slot holding the key, or the empty slot where it belongs
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (postings[slot] != null && keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        IdList[] oldPostings = postings;
+        keys = new long[oldKeys.length * 2];
+        postings = new IdList[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPostings[i] == null) continue;
+            int slot = slot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            postings[slot] = oldPostings[i];
+        }
+    }
+}
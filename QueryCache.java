@@ -0,0 +1,130 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Complete results of recent searches for BookRepository, so that a query searched again
+// (the console's "try another query" loop, backspacing in the GUI field) is answered
+// without looking at the catalog. Least recently used entries go first once there are
+// MAX_ENTRIES of them or they hold more than MAX_BOOKS books together; results longer
+// than MAX_RESULTS are not kept, as their first page is quick to find anyway.
+//
+// A change drops only the entries it can affect: those whose query is contained in the
+// old or new title or author of the changed book. Fuzzy matches have no such test, so
+// any change drops all of them. Changes of many books at once (a reorder, clear, attach)
+// drop everything. Only used under the repository's lock.
+final class QueryCache {
+    // From the library.queryCache system property; 0 turns the cache off
+    static final int MAX_ENTRIES = Integer.getInteger("library.queryCache", 256);
+    static final int MAX_BOOKS = 100_000;
+    static final int MAX_RESULTS = 10_000;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int books; // Books in all entries
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    // Cached results of the folded query, or null
+    List<BookRecord> get(BookRepository.Field field, boolean fuzzy, String needle) {
+        Entry entry = entries.get(key(field, fuzzy, needle));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.books;
+    }
+
+    // Keeps the complete results of the folded query; the list must not change afterwards
+    void put(BookRepository.Field field, boolean fuzzy, String needle, List<BookRecord> results) {
+        if (MAX_ENTRIES == 0 || results.size() > MAX_RESULTS) return;
+        Entry old = entries.put(key(field, fuzzy, needle), new Entry(field, fuzzy, needle, results));
+        if (old != null) books -= old.books.size();
+        books += results.size();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES || books > MAX_BOOKS) {
+            books -= eldest.next().books.size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    // A book was added (old null), changed or removed (book null)
+    void changed(BookRecord old, BookRecord book) {
+        if (entries.isEmpty()) return;
+        String oldTitle = old != null ? NGramIndex.fold(old.title) : null;
+        String oldAuthor = old != null ? NGramIndex.fold(old.author) : null;
+        String title = book != null ? NGramIndex.fold(book.title) : null;
+        String author = book != null ? NGramIndex.fold(book.author) : null;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.fuzzy || entry.affectedBy(oldTitle, oldAuthor) || entry.affectedBy(title, author)) {
+                books -= entry.books.size();
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    void clear() {
+        invalidations += entries.size();
+        entries.clear();
+        books = 0;
+    }
+
+    Stats stats() {
+        return new Stats(hits, misses, evictions, invalidations, entries.size(), books);
+    }
+
+    private static String key(BookRepository.Field field, boolean fuzzy, String needle) {
+        return field.name() + (fuzzy ? '~' : ':') + needle;
+    }
+
+    private static final class Entry {
+        final BookRepository.Field field;
+        final boolean fuzzy;
+        final String needle;
+        final List<BookRecord> books;
+
+        Entry(BookRepository.Field field, boolean fuzzy, String needle, List<BookRecord> books) {
+            this.field = field;
+            this.fuzzy = fuzzy;
+            this.needle = needle;
+            this.books = books;
+        }
+
+        // Whether a book with this folded title and author is among the results or would be
+        boolean affectedBy(String title, String author) {
+            if (title == null) return false;
+            return (field != BookRepository.Field.AUTHOR && title.contains(needle))
+                    || (field != BookRepository.Field.TITLE && author.contains(needle));
+        }
+    }
+
+    // Counters since the repository was created
+    static final class Stats {
+        final long hits;
+        final long misses;
+        final long evictions; // Dropped to make room
+        final long invalidations; // Dropped because of a change
+        final int entries;
+        final int books;
+
+        Stats(long hits, long misses, long evictions, long invalidations, int entries, int books) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.entries = entries;
+            this.books = books;
+        }
+
+        // Share of lookups answered from the cache, 0 before the first one
+        double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+}
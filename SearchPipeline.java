@@ -0,0 +1,157 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Runs GUI search queries off the event dispatch thread.
+// Keystrokes are debounced, a newer query cancels the one still running,
+// and a query that extends the previous one only filters the previous results
+// once all of those have been read.
+// A query without exact matches shows the fuzzy matches (see BookRepository.searchFuzzy).
+// Results come back to the EDT a page at a time: the first page when the query is done,
+// each further one when more() asks for it, e.g. as the list is scrolled to its end.
+final class SearchPipeline {
+    static final int DEBOUNCE_MILLIS = 150;
+    static final int PAGE_SIZE = 100;
+
+    private final BookRepository books;
+    private final BiConsumer<String, List<BookRecord>> onResults; // First page, called on the EDT
+    private final Consumer<List<BookRecord>> onPage; // Further pages, called on the EDT
+    private final Timer debounce;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "library-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private String pendingQuery = "";
+    private Future<?> running;
+    private long generation; // Query counter, only touched on the EDT
+    private boolean complete = true; // Every page of the shown results was handed over; EDT only
+
+    // Results of the last query, as far as they were read; only touched by the worker thread
+    private Paged shown;
+
+    SearchPipeline(BookRepository books, BiConsumer<String, List<BookRecord>> onResults, Consumer<List<BookRecord>> onPage) {
+        this.books = books;
+        this.onResults = onResults;
+        this.onPage = onPage;
+        debounce = new Timer(DEBOUNCE_MILLIS, e -> start(pendingQuery));
+        debounce.setRepeats(false);
+    }
+
+    // Schedules a search once typing pauses
+    void submit(String query) {
+        pendingQuery = query;
+        debounce.restart();
+    }
+
+    // Runs the search right away (search button)
+    void submitNow(String query) {
+        debounce.stop();
+        start(query);
+    }
+
+    // Drops the pending and the running query
+    void cancel() {
+        debounce.stop();
+        generation++;
+        complete = true;
+        if (running != null) running.cancel(true);
+    }
+
+    // Reads the next page of the shown results, if they have one. Ignored while a query
+    // or a page is still on its way, so it may be called on every scroll event.
+    void more() {
+        if (complete || (running != null && !running.isDone())) return;
+        long current = generation;
+        running = executor.submit(() -> {
+            Paged paged = shown;
+            if (paged == null || paged.generation != current || paged.exhausted) return;
+            List<BookRecord> page = paged.next();
+            if (page == null) return; // Cancelled
+            boolean exhausted = paged.exhausted;
+            SwingUtilities.invokeLater(() -> {
+                if (current != generation) return;
+                complete = exhausted;
+                onPage.accept(page);
+            });
+        });
+    }
+
+    private void start(String query) {
+        cancel();
+        long current = generation;
+        CatalogEvent timing = Metrics.GUI_SEARCH.start();
+        running = executor.submit(() -> {
+            Paged paged = open(query, current);
+            if (paged == null) return; // Cancelled
+            List<BookRecord> page = List.copyOf(paged.loaded);
+            boolean exhausted = paged.exhausted;
+            SwingUtilities.invokeLater(() -> {
+                if (current != generation) return;
+                complete = exhausted;
+                onResults.accept(query, page);
+                Metrics.GUI_SEARCH.stop(timing, query, page.size());
+            });
+        });
+    }
+
+    // Results of the query with their first page read, or null if cancelled
+    private Paged open(String query, long current) {
+        String needle = NGramIndex.fold(query);
+        long version = books.version();
+        Paged previous = shown;
+        BookCursor cursor;
+        if (previous != null && previous.exhausted && !previous.fuzzy && previous.version == version && needle.contains(previous.needle)) {
+            // Every match of the new query also matched the previous one, and those were all read
+            List<BookRecord> results = new ArrayList<>();
+            for (int i = 0; i < previous.loaded.size(); i++) {
+                if ((i & 1023) == 0 && Thread.currentThread().isInterrupted()) return null;
+                BookRecord book = previous.loaded.get(i);
+                if (BookRepository.matches(book, needle)) results.add(book);
+            }
+            cursor = BookCursor.of(results);
+        } else {
+            cursor = books.cursor(query, BookRepository.Field.ALL);
+        }
+        Paged paged = new Paged(needle, version, cursor, false, current);
+        if (paged.next() == null) return null;
+        if (paged.loaded.isEmpty()) {
+            paged = new Paged(needle, version, BookCursor.of(books.searchFuzzy(query)), true, current);
+            paged.next();
+        }
+        shown = paged;
+        return paged;
+    }
+
+    private static final class Paged {
+        final String needle;
+        final long version;
+        final BookCursor cursor;
+        final boolean fuzzy; // Fuzzy results cannot be narrowed by filtering
+        final long generation;
+        final List<BookRecord> loaded = new ArrayList<>(); // Pages read so far
+        boolean exhausted; // The last page read came out short
+
+        Paged(String needle, long version, BookCursor cursor, boolean fuzzy, long generation) {
+            this.needle = needle;
+            this.version = version;
+            this.cursor = cursor;
+            this.fuzzy = fuzzy;
+            this.generation = generation;
+        }
+
+        // Next page, or null if the thread was interrupted
+        List<BookRecord> next() {
+            List<BookRecord> page = cursor.next(PAGE_SIZE);
+            if (Thread.currentThread().isInterrupted()) return null;
+            loaded.addAll(page);
+            exhausted = page.size() < PAGE_SIZE;
+            return page;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Arrays;
+
+// Binary sort keys for Russian and English text, compared with Arrays.compareUnsigned.
+// Like java.text.CollationKey, the key has three levels, each ended by a 0 byte:
+//   primary:   letters and digits case-folded, ё = е; whitespace runs count as one
+//              space, leading and trailing whitespace and punctuation are ignored
+//   secondary: ё after е
+//   tertiary:  lower case before upper case
+// so "ёлка" sorts between "елка" and "ель" as in a Russian dictionary, and words come
+// in alphabet order regardless of case. Digits sort before Latin letters, Latin before
+// Cyrillic, and any other character after all of them, by its code. Trailing base
+// weights of the secondary and tertiary levels are dropped, which keeps a key about
+// as long as the text. Keys of two fields can be concatenated to sort by both.
+final class SortKey {
+    private static final byte SPACE = 1;
+    private static final byte OTHER = (byte) 0xFF; // Followed by three bytes of the char
+    // Primary weight per char below the end of the Cyrillic block; 0 = ignorable
+    private static final byte[] PRIMARY = new byte[0x460];
+
+    static {
+        byte weight = 2;
+        for (char c = '0'; c <= '9'; c++) PRIMARY[c] = weight++;
+        for (char c = 'a'; c <= 'z'; c++) {
+            PRIMARY[c] = weight;
+            PRIMARY[Character.toUpperCase(c)] = weight++;
+        }
+        for (char c = 'а'; c <= 'я'; c++) {
+            PRIMARY[c] = weight;
+            PRIMARY[Character.toUpperCase(c)] = weight++;
+            if (c == 'е') {
+                PRIMARY['ё'] = PRIMARY[c];
+                PRIMARY['Ё'] = PRIMARY[c];
+            }
+        }
+        // Other letters of the Cyrillic block (Ukrainian, Serbian, ...) after the Russian ones
+        for (char c = 0x400; c < 0x460; c++) if (PRIMARY[c] == 0 && Character.isLetter(c)) PRIMARY[c] = OTHER;
+        for (char c = 0; c < 0x400; c++) if (PRIMARY[c] == 0 && Character.isLetterOrDigit(c)) PRIMARY[c] = OTHER;
+    }
+
+    private SortKey() {
+    }
+
+    static byte[] of(String text) {
+        return of(text, null);
+    }
+
+    // Key of the first text followed by the key of the second one
+    static byte[] of(String first, String second) {
+        byte[] key = new byte[(first.length() + (second == null ? 0 : second.length())) * 6 + 6];
+        int length = append(first, key, 0);
+        if (second != null) length = append(second, key, length);
+        return Arrays.copyOf(key, length);
+    }
+
+    // Writes the three levels of text's key at offset; returns the new end
+    private static int append(String text, byte[] key, int offset) {
+        int start = offset;
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = offset > start;
+                continue;
+            }
+            byte weight = primary(c);
+            if (weight == 0) continue;
+            if (space) key[offset++] = SPACE;
+            space = false;
+            if (weight != OTHER) {
+                key[offset++] = weight;
+            } else {
+                // Order-preserving 3 x 7 bits, all non-zero
+                char lower = Character.toLowerCase(c);
+                key[offset++] = OTHER;
+                key[offset++] = (byte) ((lower >> 14) + 1);
+                key[offset++] = (byte) ((lower >> 7 & 0x7F) + 1);
+                key[offset++] = (byte) ((lower & 0x7F) + 1);
+            }
+        }
+        key[offset++] = 0;
+        offset = appendLevel(text, key, offset, true);
+        return appendLevel(text, key, offset, false);
+    }
+
+    // Secondary (ё) or tertiary (case) weights: 1 = base, 2 = marked; one per primary char
+    private static int appendLevel(String text, byte[] key, int offset, boolean secondary) {
+        int lastMarked = offset;
+        int position = offset;
+        boolean space = false;
+        boolean started = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = started;
+                continue;
+            }
+            if (primary(c) == 0) continue;
+            if (space) key[position++] = 1;
+            space = false;
+            started = true;
+            boolean marked = secondary ? c == 'ё' || c == 'Ё' : Character.isUpperCase(c);
+            key[position++] = (byte) (marked ? 2 : 1);
+            if (marked) lastMarked = position;
+        }
+        key[lastMarked] = 0;
+        return lastMarked + 1;
+    }
+
+    private static byte primary(char c) {
+        return c < PRIMARY.length ? PRIMARY[c] : Character.isLetterOrDigit(c) ? OTHER : 0;
+    }
+}
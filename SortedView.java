@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.function.Function;
+
+// Book ids kept ordered by a sort key (see SortKey), ties broken by id, so a sorted
+// list can be shown by position without sorting. Added books wait in an unsorted
+// buffer and are merged in on the next read: a bulk import costs one sort of the
+// new books and one merge instead of a shift of the whole array per book.
+final class SortedView {
+    private final Function<BookRecord, byte[]> keyOf;
+    private byte[][] keys = new byte[16][];
+    private long[] ids = new long[16];
+    private int size;
+    // Added since the last merge, in no particular order
+    private byte[][] pendingKeys = new byte[16][];
+    private long[] pendingIds = new long[16];
+    private int pending;
+
+    SortedView(Function<BookRecord, byte[]> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    int size() {
+        return size + pending;
+    }
+
+    void add(BookRecord book) {
+        if (pending == pendingIds.length) {
+            pendingKeys = Arrays.copyOf(pendingKeys, pending * 2);
+            pendingIds = Arrays.copyOf(pendingIds, pending * 2);
+        }
+        pendingKeys[pending] = keyOf.apply(book);
+        pendingIds[pending++] = book.id;
+    }
+
+    // The book must be in the view with the same title and author
+    void remove(BookRecord book) {
+        merge();
+        int at = find(keyOf.apply(book), book.id);
+        if (at < 0) throw new IllegalStateException("Book " + book.id + " is not in the sorted view");
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+        keys[--size] = null;
+    }
+
+    // Id of the book at the given sorted position
+    long idAt(int position) {
+        merge();
+        return ids[position];
+    }
+
+    // Sorted position of the book, or -1
+    int positionOf(BookRecord book) {
+        merge();
+        int at = find(keyOf.apply(book), book.id);
+        return at < 0 ? -1 : at;
+    }
+
+    private int find(byte[] key, long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(keys[mid], ids[mid], key, id);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
+        }
+        return -low - 1;
+    }
+
+    private static int compare(byte[] key1, long id1, byte[] key2, long id2) {
+        int c = Arrays.compareUnsigned(key1, key2);
+        return c != 0 ? c : Long.compare(id1, id2);
+    }
+
+    private void merge() {
+        if (pending == 0) return;
+        if (pending <= 8 && size + pending <= keys.length) {
+            // A few single edits: shifting is cheaper than a new array
+            for (int p = 0; p < pending; p++) {
+                int at = -find(pendingKeys[p], pendingIds[p]) - 1;
+                System.arraycopy(keys, at, keys, at + 1, size - at);
+                System.arraycopy(ids, at, ids, at + 1, size - at);
+                keys[at] = pendingKeys[p];
+                ids[at] = pendingIds[p];
+                size++;
+                pendingKeys[p] = null;
+            }
+            pending = 0;
+            return;
+        }
+        Integer[] order = new Integer[pending];
+        for (int i = 0; i < pending; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> compare(pendingKeys[a], pendingIds[a], pendingKeys[b], pendingIds[b]));
+        int total = size + pending;
+        byte[][] mergedKeys = new byte[Math.max(16, total + total / 4)][];
+        long[] mergedIds = new long[mergedKeys.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < total; k++) {
+            if (j == pending || (i < size && compare(keys[i], ids[i], pendingKeys[order[j]], pendingIds[order[j]]) < 0)) {
+                mergedKeys[k] = keys[i];
+                mergedIds[k] = ids[i++];
+            } else {
+                mergedKeys[k] = pendingKeys[order[j]];
+                mergedIds[k] = pendingIds[order[j++]];
+            }
+        }
+        keys = mergedKeys;
+        ids = mergedIds;
+        size = total;
+        Arrays.fill(pendingKeys, 0, pending, null);
+        pending = 0;
+    }
+}
@@ -0,0 +1,158 @@
+import librarybench.Library;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+// Library implementation of the benchmark bridge (see librarybench.Library).
+// Synthetic books combine a sample title with a word of another one and pair first
+// and last names of sample authors, so the catalog has realistic lengths, alphabets
+// and repetition at any size.
+public class BenchmarkLibrary implements Library {
+    private static final String[] SAMPLES = {"/russian_books.txt", "/foreign_books.txt"};
+
+    private final CatalogExporter exporter = new CatalogExporter();
+    private BookRepository books = new BookRepository();
+
+    @Override
+    public void generate(int size, long seed) throws IOException {
+        List<String> titles = new ArrayList<>();
+        List<String> authors = new ArrayList<>();
+        for (String sample : SAMPLES) readSample(sample, titles, authors);
+        List<String> words = new ArrayList<>();
+        List<String> firstNames = new ArrayList<>();
+        List<String> lastNames = new ArrayList<>();
+        for (String title : titles) for (String word : title.split(" ")) if (word.length() > 3) words.add(word.toLowerCase());
+        for (String author : authors) {
+            int space = author.lastIndexOf(' ');
+            firstNames.add(space < 0 ? author : author.substring(0, space));
+            lastNames.add(author.substring(space + 1));
+        }
+        Random random = new Random(seed);
+        String[] batchTitles = new String[4096];
+        String[] batchAuthors = new String[4096];
+        books = new BookRepository();
+        for (int done = 0; done < size; ) {
+            int count = Math.min(batchTitles.length, size - done);
+            for (int i = 0; i < count; i++) {
+                String title = titles.get(random.nextInt(titles.size())) + " " + words.get(random.nextInt(words.size()));
+                if (random.nextInt(4) == 0) title += " " + (1 + random.nextInt(20));
+                batchTitles[i] = title;
+                batchAuthors[i] = firstNames.get(random.nextInt(firstNames.size())) + " " + lastNames.get(random.nextInt(lastNames.size()));
+            }
+            books.addAll(batchTitles, batchAuthors, count);
+            done += count;
+        }
+    }
+
+    private static void readSample(String resource, List<String> titles, List<String> authors) throws IOException {
+        InputStream in = BenchmarkLibrary.class.getResourceAsStream(resource);
+        if (in == null) throw new FileNotFoundException("Sample catalog not on the class path: " + resource);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comma = line.lastIndexOf(',');
+                if (comma < 0) continue;
+                titles.add(line.substring(0, comma).trim());
+                authors.add(line.substring(comma + 1).trim());
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return books.size();
+    }
+
+    @Override
+    public int search(String query) {
+        return books.search(query).size();
+    }
+
+    @Override
+    public int searchTitle(String query) {
+        return books.searchTitle(query).size();
+    }
+
+    @Override
+    public int searchPage(String query, int limit) {
+        return books.cursor(query, BookRepository.Field.ALL).next(limit).size();
+    }
+
+    @Override
+    public int complete(String prefix, int limit) {
+        return books.complete(prefix, BookRepository.Field.ALL, limit).size();
+    }
+
+    @Override
+    public int searchFuzzy(String query) {
+        return books.searchFuzzy(query).size();
+    }
+
+    @Override
+    public void sortByTitle() {
+        books.sort((b1, b2) -> b1.title.compareToIgnoreCase(b2.title));
+    }
+
+    @Override
+    public int titleOrderRow(int position) {
+        return books.getAt(BookRepository.Order.TITLE, position).title.length();
+    }
+
+    @Override
+    public void shuffle(long seed) {
+        books.sort(Comparator.comparingLong(book -> (book.id ^ seed) * 0x9E3779B97F4A7C15L));
+    }
+
+    @Override
+    public long exportText(Path file) throws IOException {
+        return exporter.export(file, books);
+    }
+
+    @Override
+    public long importText(Path file) throws IOException {
+        return CatalogImporter.importFile(file, new BookRepository(), null).imported;
+    }
+
+    @Override
+    public void writeSnapshot(Path file) throws IOException {
+        CatalogFile.write(file, books);
+    }
+
+    @Override
+    public int readSnapshot(Path file) throws IOException {
+        BookRepository loaded = new BookRepository();
+        CatalogFile.read(file, loaded);
+        return loaded.size();
+    }
+
+    @Override
+    public int openSnapshot(Path file) throws IOException {
+        BookRepository loaded = new BookRepository();
+        CatalogFile.open(file, loaded);
+        return loaded.isEmpty() ? 0 : loaded.getAt(0).title.length();
+    }
+
+    @Override
+    public void writeLegacy(Path file) throws IOException {
+        List<LibraryManager.Book> list = new ArrayList<>(books.size());
+        for (BookRecord book : books) list.add(new LibraryManager.Book(book.title, book.author));
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeObject(list);
+        }
+    }
+
+    @Override
+    public int readLegacy(Path file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return ((List<?>) in.readObject()).size();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
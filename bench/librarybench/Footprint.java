@@ -0,0 +1,54 @@
+package librarybench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+
+// Heap taken by the catalog, per book. Builds catalogs of the given sizes with the
+// benchmark generator and measures the live heap after a full GC: first as built, with
+// the indexes kept up to date on every change, then once the lazily built structures
+// (the title order, the word indexes of the fuzzy search and the autocomplete tries) have
+// been used as well.
+// Run it on its own JVM, with a heap large enough for the biggest size:
+//
+//   java -Xmx8g -cp target/benchmarks.jar librarybench.Footprint [SIZE...]
+public final class Footprint {
+    private static final int[] DEFAULT_SIZES = {100_000, 1_000_000};
+
+    private Footprint() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+        System.out.printf("%12s %16s %16s%n", "books", "bytes/book", "all used");
+        for (int size : sizes) {
+            long empty = usedHeap();
+            Library library = Library.create();
+            library.generate(size, 42);
+            long built = usedHeap();
+            library.titleOrderRow(0);
+            library.searchFuzzy("толстой");
+            library.complete("тол", 8);
+            long used = usedHeap();
+            System.out.printf("%12d %16.1f %16.1f%n", library.size(), (double) (built - empty) / size, (double) (used - empty) / size);
+            Reference.reachabilityFence(library);
+        }
+    }
+
+    // Heap in use after full collections, the lowest of a few so that late finalization
+    // and concurrent phases do not count
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,66 @@
+package librarybench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// The library operations the benchmarks measure. The library classes are in the default
+// package, which JMH benchmarks (and any named package) cannot refer to, so they are
+// reached through this interface, implemented by BenchmarkLibrary in the default package.
+public interface Library {
+    static Library create() {
+        try {
+            return (Library) Class.forName("BenchmarkLibrary").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkLibrary is missing from the benchmark build", e);
+        }
+    }
+
+    // Replaces the catalog with size synthetic books made from the sample catalogs
+    void generate(int size, long seed) throws IOException;
+
+    int size();
+
+    // Substring search over titles and authors, as the GUI search field does
+    int search(String query);
+
+    // Substring search over titles, as the console search does
+    int searchTitle(String query);
+
+    // First page of the same search, as the GUI list and the console show it
+    int searchPage(String query, int limit);
+
+    // Titles and authors starting with the prefix, as the GUI search field suggests them
+    int complete(String prefix, int limit);
+
+    // Typo-tolerant search over titles and authors, used when the exact search finds nothing
+    int searchFuzzy(String query);
+
+    // Sort button of the GUI
+    void sortByTitle();
+
+    // Row of the GUI list in title order; the sorted view is built on the first call
+    int titleOrderRow(int position);
+
+    // Puts the books in a pseudo-random order
+    void shuffle(long seed);
+
+    // "Сохранить в файл"
+    long exportText(Path file) throws IOException;
+
+    // "Загрузить из файла" into an empty catalog; returns the number of books read
+    long importText(Path file) throws IOException;
+
+    // Saving on exit: binary snapshot
+    void writeSnapshot(Path file) throws IOException;
+
+    // Startup: reads the whole snapshot into an empty catalog
+    int readSnapshot(Path file) throws IOException;
+
+    // Startup in mapped mode: maps the snapshot and decodes the first book only
+    int openSnapshot(Path file) throws IOException;
+
+    // The ObjectOutputStream .ser format of earlier versions, as a baseline
+    void writeLegacy(Path file) throws IOException;
+
+    int readLegacy(Path file) throws IOException;
+}
@@ -0,0 +1,227 @@
+package librarybench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Load test of the HTTP service (LibraryManager --serve, see CatalogServer): keeps the
+// given number of keep-alive connections busy with GET requests, one request in flight
+// on each, and reports throughput and latency percentiles. All connections are driven
+// by one selector thread, so tens of thousands of them cost no more client threads
+// (raise the open file limit for that many). Each connection cycles through the paths.
+//
+//   java -cp target/benchmarks.jar librarybench.LoadTest [--url http://127.0.0.1:8080]
+//        [--connections 256] [--seconds 10] [--warmup 3] [PATH...]
+public final class LoadTest {
+    private static final String[] DEFAULT_PATHS = {
+            "/search?q=война и мир", "/search?q=толстой&field=author", "/books?offset=0&limit=20",
+            "/books?offset=1000&limit=20&order=title", "/books/1"
+    };
+
+    private final InetSocketAddress address;
+    private final byte[][] requests;
+    private final Histogram latencies = new Histogram();
+    private long errors;
+    private String firstError;
+    private boolean recording;
+
+    private LoadTest(URI url, List<String> paths) {
+        int port = url.getPort() < 0 ? 80 : url.getPort();
+        address = new InetSocketAddress(url.getHost(), port);
+        requests = new byte[paths.size()][];
+        for (int i = 0; i < requests.length; i++) {
+            String target = encode(paths.get(i));
+            requests[i] = ("GET " + target + " HTTP/1.1\r\nHost: " + url.getHost() + ":" + port + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // Percent-encodes spaces and non-ASCII characters; anything else, including existing
+    // %XX escapes, is sent as it is
+    private static String encode(String path) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            if (b > ' ') sb.append((char) b);
+            else sb.append('%').append(Character.toUpperCase(Character.forDigit(b >> 4 & 0xF, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String url = "http://127.0.0.1:8080";
+        int connections = 256;
+        int seconds = 10;
+        int warmup = 3;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url": url = args[++i]; break;
+                case "--connections": connections = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                default: paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) paths = List.of(DEFAULT_PATHS);
+        new LoadTest(URI.create(url), paths).run(connections, warmup, seconds);
+    }
+
+    private void run(int connections, int warmup, int seconds) throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) new Connection(i % requests.length).connect(selector);
+            long start = System.nanoTime();
+            long measured = start + warmup * 1_000_000_000L;
+            long end = measured + seconds * 1_000_000_000L;
+            for (long now = start; now < end; now = System.nanoTime()) {
+                if (!recording && now >= measured) recording = true;
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) ((Connection) key.attachment()).ready(key);
+                selector.selectedKeys().clear();
+            }
+            for (SelectionKey key : selector.keys()) key.channel().close();
+        }
+        long count = latencies.count();
+        System.out.printf("requests:    %d in %d s, %d errors%n", count, seconds, errors);
+        if (firstError != null) System.out.println("first error: " + firstError);
+        System.out.printf("throughput:  %.0f requests/s over %d connections%n", (double) count / seconds, connections);
+        System.out.printf("latency ms:  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                latencies.percentile(50) / 1e6, latencies.percentile(90) / 1e6, latencies.percentile(99) / 1e6,
+                latencies.percentile(99.9) / 1e6, latencies.max() / 1e6);
+    }
+
+    // One keep-alive connection: writes a request, reads the whole response, repeats
+    private final class Connection {
+        private SocketChannel channel;
+        private int next; // Index of the next request
+        private ByteBuffer out;
+        private ByteBuffer in = ByteBuffer.allocate(16 << 10);
+        private long sent;
+
+        Connection(int first) {
+            next = first;
+        }
+
+        void connect(Selector selector) throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            channel.register(selector, SelectionKey.OP_CONNECT, this);
+        }
+
+        void ready(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    send(key);
+                } else if (key.isWritable()) {
+                    channel.write(out);
+                    if (!out.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                } else if (key.isReadable()) {
+                    if (channel.read(in) < 0) throw new IOException("Connection closed by the server");
+                    int length = responseLength();
+                    if (length < 0) {
+                        if (!in.hasRemaining()) in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+                        return;
+                    }
+                    int status = (in.get(9) - '0') * 100 + (in.get(10) - '0') * 10 + (in.get(11) - '0');
+                    if (recording) {
+                        if (status >= 500 && errors++ == 0) firstError = "HTTP status " + status;
+                        else latencies.record(System.nanoTime() - sent);
+                    }
+                    in.flip().position(length).compact();
+                    send(key);
+                }
+            } catch (IOException e) {
+                // Counted, and the connection is opened again
+                if (recording && errors++ == 0) firstError = e.toString();
+                key.cancel();
+                try {
+                    channel.close();
+                    in.clear();
+                    connect(key.selector());
+                } catch (IOException again) {
+                    throw new IllegalStateException("Cannot reconnect to " + address, again);
+                }
+            }
+        }
+
+        private void send(SelectionKey key) throws IOException {
+            out = ByteBuffer.wrap(requests[next]);
+            next = (next + 1) % requests.length;
+            sent = System.nanoTime();
+            channel.write(out);
+            key.interestOps(out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        // Length of the first complete response in the buffer (headers and body), or -1
+        private int responseLength() throws IOException {
+            int end = -1;
+            for (int i = 3; i < in.position(); i++) {
+                if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+                    end = i + 1;
+                    break;
+                }
+            }
+            if (end < 0) return -1;
+            String headers = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1).toLowerCase();
+            int at = headers.indexOf("\r\ncontent-length:");
+            if (at < 0) throw new IOException("Response without Content-Length");
+            int lineEnd = headers.indexOf('\r', at + 2);
+            int total = end + Integer.parseInt(headers.substring(at + 17, lineEnd).trim());
+            return in.position() >= total ? total : -1;
+        }
+    }
+
+    // Latency counts in buckets of about 3% width (32 per power of two)
+    private static final class Histogram {
+        private static final int SUB_BUCKETS = 32;
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long max;
+
+        void record(long nanos) {
+            counts[bucket(Math.max(1, nanos))]++;
+            max = Math.max(max, nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (long c : counts) count += c;
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        // Upper bound of the bucket holding the given percentile
+        long percentile(double percent) {
+            long rank = (long) Math.ceil(count() * percent / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(upperBound(i), max);
+            }
+            return 0;
+        }
+
+        private static int bucket(long value) {
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent < 5) return (int) value; // Below 32 ns every value has its own bucket
+            long sub = (value >>> (exponent - 5)) & (SUB_BUCKETS - 1);
+            return exponent * SUB_BUCKETS + (int) sub;
+        }
+
+        private static long upperBound(int bucket) {
+            int exponent = bucket / SUB_BUCKETS;
+            if (exponent < 5) return bucket;
+            long sub = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - 5)) - 1;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package librarybench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Substring search as typed into the GUI search field and the console search. The query
+// cache is off except in searchRepeated, as the few queries here would all be cached.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g", "-Dlibrary.queryCache=0"})
+public class SearchBenchmark {
+    // Short and long queries, frequent and rare, Cyrillic and Latin
+    private static final String[] QUERIES = {"ми", "война", "толстой", "Мастер и Маргарита", "gatsby", "нет такой книги"};
+    // Misspelled and transliterated, as searched again after finding nothing
+    private static final String[] FUZZY_QUERIES = {"Достоевскии", "Bulgakov", "мастер и маргарита", "Преступлене", "gatsbi", "нет такой книги"};
+    // Text typed into the GUI search field, from one letter to a whole first name
+    private static final String[] PREFIXES = {"м", "тол", "Лев ", "Мастер и", "the", "щщ"};
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private Library library;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        library = Library.create();
+        library.generate(size, 42);
+    }
+
+    @Benchmark
+    public int search() {
+        return library.search(QUERIES[next++ % QUERIES.length]);
+    }
+
+    @Benchmark
+    public int searchTitle() {
+        return library.searchTitle(QUERIES[next++ % QUERIES.length]);
+    }
+
+    // The same queries searched again, mostly answered by the query cache
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+    public int searchRepeated() {
+        return library.search(QUERIES[next++ % QUERIES.length]);
+    }
+
+    // What the GUI waits for before showing results: one page, however many books match
+    @Benchmark
+    public int searchFirstPage() {
+        return library.searchPage(QUERIES[next++ % QUERIES.length], 100);
+    }
+
+    // Suggestions under the GUI search field; the tries are built by the first call, during warmup
+    @Benchmark
+    public int complete() {
+        return library.complete(PREFIXES[next++ % PREFIXES.length], 8);
+    }
+
+    // The word index is built by the first query, during warmup
+    @Benchmark
+    public int searchFuzzy() {
+        return library.searchFuzzy(FUZZY_QUERIES[next++ % FUZZY_QUERIES.length]);
+    }
+}
@@ -0,0 +1,70 @@
+package librarybench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Saving on exit and loading on startup: the binary snapshot against the old .ser format
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class SnapshotBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private Library library;
+    private Path snapshot;
+    private Path legacy;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        library = Library.create();
+        library.generate(size, 42);
+        snapshot = Files.createTempFile("library-bench", ".lbc");
+        legacy = Files.createTempFile("library-bench", ".ser");
+        target = Files.createTempFile("library-bench", ".out");
+        library.writeSnapshot(snapshot);
+        library.writeLegacy(legacy);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(legacy);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public Path writeSnapshot() throws IOException {
+        library.writeSnapshot(target);
+        return target;
+    }
+
+    @Benchmark
+    public int readSnapshot() throws IOException {
+        return library.readSnapshot(snapshot);
+    }
+
+    @Benchmark
+    public int openSnapshot() throws IOException {
+        return library.openSnapshot(snapshot);
+    }
+
+    @Benchmark
+    public Path writeLegacy() throws IOException {
+        library.writeLegacy(target);
+        return target;
+    }
+
+    @Benchmark
+    public int readLegacy() throws IOException {
+        return library.readLegacy(legacy);
+    }
+}
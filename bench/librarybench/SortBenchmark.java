@@ -0,0 +1,51 @@
+package librarybench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Sorting by title: a full sort of a shuffled catalog against reading the maintained title order
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class SortBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private Library library;
+    private long seed;
+    private int row;
+
+    @Setup
+    public void setUp() throws IOException {
+        library = Library.create();
+        library.generate(size, 42);
+    }
+
+    // Every measured sort starts from a different random order
+    @Setup(Level.Iteration)
+    public void shuffle() {
+        library.shuffle(++seed);
+    }
+
+    @Benchmark
+    public int sortByTitle() {
+        library.sortByTitle();
+        return library.size();
+    }
+
+    // What the GUI does per visible row after switching to title order
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public int titleOrderRow() {
+        row = (row + 7919) % size;
+        return library.titleOrderRow(row);
+    }
+}
@@ -0,0 +1,49 @@
+package librarybench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// "Сохранить в файл" and "Загрузить из файла" with the default "title, author" format
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class TextFileBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private Library library;
+    private Path source;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        library = Library.create();
+        library.generate(size, 42);
+        source = Files.createTempFile("library-bench", ".txt");
+        target = Files.createTempFile("library-bench", ".txt");
+        library.exportText(source);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long exportText() throws IOException {
+        return library.exportText(target);
+    }
+
+    @Benchmark
+    public long importText() throws IOException {
+        return library.importText(source);
+    }
+}
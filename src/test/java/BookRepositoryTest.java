@@ -0,0 +1,133 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BookRepositoryTest {
+    private static final String[] WORDS = {"война", "мир", "Тихий", "дон", "Мастер", "ёлка", "елка", "Idiot", "anna", "сад"};
+    private static final String[] AUTHORS = {"Лев Толстой", "Шолохов", "Булгаков", "Dostoevsky", "Чехов"};
+
+    // The same random changes, applied to a repository of each storage
+    private static BookRepository changed(BookRepository.Storage storage) {
+        BookRepository books = new BookRepository(BookRepository.DEFAULT_GRAM_LENGTH, storage);
+        Random random = new Random(5);
+        for (int i = 0; i < 6000; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 5 || books.size() == 0) books.add(title(random), AUTHORS[random.nextInt(AUTHORS.length)]);
+            else if (kind < 8) books.update(books.getAt(random.nextInt(books.size())).id, title(random), AUTHORS[random.nextInt(AUTHORS.length)]);
+            else books.remove(books.getAt(random.nextInt(books.size())).id);
+        }
+        return books;
+    }
+
+    private static String title(Random random) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(100);
+    }
+
+    // BookColumns, on the heap and off it, keep the same books as BookRecords do, also
+    // across the arena compactions the many edits cause
+    @Test
+    void storagesAgree() {
+        BookRepository objects = changed(BookRepository.Storage.OBJECTS);
+        for (BookRepository.Storage storage : List.of(BookRepository.Storage.COLUMNS, BookRepository.Storage.OFF_HEAP)) {
+            BookRepository columns = changed(storage);
+            assertEquals(CatalogFileTest.rows(objects), CatalogFileTest.rows(columns), storage.name());
+            assertEquals(objects.searchTitle("мир д").size(), columns.searchTitle("мир д").size(), storage.name());
+            assertEquals(objects.searchAuthor("ол").size(), columns.searchAuthor("ол").size(), storage.name());
+        }
+    }
+
+    // SortedView gives the books ordered by SortKey of both fields, ties by id
+    @Test
+    void sortedOrders() {
+        BookRepository books = changed(BookRepository.Storage.OBJECTS);
+        books.getAt(BookRepository.Order.TITLE, 0); // The views are built now and then kept up to date
+        books.getAt(BookRepository.Order.AUTHOR, 0);
+        Random random = new Random(9);
+        for (int i = 0; i < 500; i++) {
+            books.add(title(random), AUTHORS[random.nextInt(AUTHORS.length)]);
+            books.remove(books.getAt(random.nextInt(books.size())).id);
+        }
+        List<BookRecord> all = books.toList();
+        assertOrder(books, BookRepository.Order.TITLE, all, book -> SortKey.of(book.title, book.author));
+        assertOrder(books, BookRepository.Order.AUTHOR, all, book -> SortKey.of(book.author, book.title));
+    }
+
+    private static void assertOrder(BookRepository books, BookRepository.Order order, List<BookRecord> all, java.util.function.Function<BookRecord, byte[]> key) {
+        List<BookRecord> expected = new ArrayList<>(all);
+        expected.sort(Comparator.<BookRecord, byte[]>comparing(key, Arrays::compareUnsigned).thenComparingLong(book -> book.id));
+        for (int i = 0; i < expected.size(); i++) {
+            BookRecord book = books.getAt(order, i);
+            assertEquals(expected.get(i).id, book.id, order + " at " + i);
+            assertEquals(i, books.positionOf(order, book.id));
+        }
+    }
+
+    @Test
+    void sortKeyCollation() {
+        assertEquals(-1, Integer.signum(Arrays.compareUnsigned(SortKey.of("елка"), SortKey.of("ёлка"))));
+        assertEquals(-1, Integer.signum(Arrays.compareUnsigned(SortKey.of("ёлка"), SortKey.of("ель"))));
+        assertEquals(-1, Integer.signum(Arrays.compareUnsigned(SortKey.of("анна"), SortKey.of("Анна"))));
+        assertEquals(-1, Integer.signum(Arrays.compareUnsigned(SortKey.of("Анна"), SortKey.of("Борис"))));
+    }
+
+    // ContentIndex: the same title and author up to case, spaces and ё
+    @Test
+    void duplicates() {
+        BookRepository books = CatalogFileTest.sample();
+        BookRecord original = books.getAt(0);
+        assertSame(original.id, books.findDuplicate("  ВОЙНА   и мир ", "лев толстой").id);
+        assertNotNull(books.findDuplicate("Идиот", "Федор Достоевский"));
+        assertNull(books.findDuplicate("Война и мир", "Толстой"));
+        books.add("война и МИР", "Лев  Толстой");
+        List<List<BookRecord>> groups = books.duplicates();
+        assertEquals(1, groups.size());
+        assertEquals(original.id, groups.get(0).get(0).id);
+        assertEquals(2, groups.get(0).size());
+        books.remove(original.id);
+        assertEquals(0, books.duplicates().size());
+    }
+
+    @Test
+    void contentHashFollowsContentKey() {
+        Random random = new Random(3);
+        String[] variants = {"Мастер  и ", " мастер И", "МАСТЕР и", "мастер\tи"};
+        for (int i = 0; i < 200; i++) {
+            String title = variants[random.nextInt(variants.length)] + " маргарита";
+            String author = random.nextBoolean() ? "Булгаков " : " булгаков";
+            assertEquals(BookRepository.contentKey("Мастер и Маргарита", "Булгаков"), BookRepository.contentKey(title, author));
+            assertEquals(BookRepository.contentHash("Мастер и Маргарита", "Булгаков"), BookRepository.contentHash(title, author));
+        }
+    }
+
+    // AuthorDictionary: the books of one author share its entry and its String
+    @Test
+    void authorsAreShared() {
+        BookRepository books = new BookRepository();
+        BookRecord first = books.add("Война и мир", new String("Лев Толстой"));
+        BookRecord second = books.add("Анна Каренина", new String("Лев Толстой"));
+        BookRecord other = books.add("Тихий Дон", "Шолохов");
+        assertEquals(first.authorId, second.authorId);
+        assertSame(first.author, second.author);
+        assertNotEquals(first.authorId, other.authorId);
+        assertSame(first.author, books.update(second.id, "Анна Каренина", new String("Лев Толстой")).author);
+    }
+
+    @Test
+    void exactLookups() {
+        BookRepository books = CatalogFileTest.sample();
+        books.add("война  и МИР", "Лев Толстой");
+        assertEquals(2, books.findByTitle("Война и мир").size());
+        assertEquals(3, books.findByAuthor("  лев толстой").size());
+        assertEquals(0, books.findByAuthor("Толстой").size());
+    }
+}
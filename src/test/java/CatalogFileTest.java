@@ -0,0 +1,113 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogFileTest {
+    @TempDir
+    Path dir;
+
+    // A catalog with a removed book, an edited one and an author of two books
+    static BookRepository sample() {
+        BookRepository books = new BookRepository();
+        books.add("Война и мир", "Лев Толстой");
+        long removed = books.add("Черновик", "Никто").id;
+        books.add("Анна Каренина", "Лев Толстой");
+        long edited = books.add("Идиот", "Достоевский").id;
+        books.add("Master and Margarita", "Bulgakov");
+        books.remove(removed);
+        books.update(edited, "Идиот", "Фёдор Достоевский");
+        return books;
+    }
+
+    static List<String> rows(BookRepository books) {
+        List<String> rows = new ArrayList<>();
+        for (BookRecord book : books) rows.add(book.id + "|" + book.title + "|" + book.author);
+        return rows;
+    }
+
+    @Test
+    void writeAndRead() throws IOException {
+        BookRepository books = sample();
+        Path file = dir.resolve("c.lbc");
+        CatalogFile.write(file, books);
+        BookRepository read = new BookRepository();
+        CatalogFile.read(file, read);
+        assertEquals(rows(books), rows(read));
+        // Ids of removed books are not handed out again
+        assertEquals(books.nextId(), read.nextId());
+        assertEquals(books.add("Новая", "Автор").id, read.add("Новая", "Автор").id);
+    }
+
+    @Test
+    void writeAndAttach() throws IOException {
+        BookRepository books = sample();
+        Path file = dir.resolve("c.lbc");
+        CatalogFile.write(file, books.snapshot(), 42);
+        MappedCatalog catalog = MappedCatalog.open(file);
+        assertEquals(4, catalog.count);
+        assertEquals(42, catalog.sequence);
+        assertTrue(catalog.verifyChecksum());
+        BookRepository attached = new BookRepository();
+        attached.attach(catalog);
+        assertEquals(rows(books), rows(attached));
+        BookRecord tolstoy = books.getAt(0);
+        assertEquals(1, attached.positionOf(books.getAt(1).id));
+        assertEquals(tolstoy.title, attached.get(tolstoy.id).title);
+        // Decoded books of one author share the name of the file's author table
+        assertSame(attached.getAt(0).author, attached.getAt(1).author);
+        // The attached catalog changes and searches like any other
+        for (BookRepository repository : List.of(books, attached)) {
+            repository.update(tolstoy.id, "Война и мир. Том 1", tolstoy.author);
+            repository.remove(repository.getAt(2).id);
+            repository.add("Белая гвардия", "Bulgakov");
+        }
+        assertEquals(rows(books), rows(attached));
+        assertEquals(List.of("Война и мир. Том 1"), titles(attached.searchTitle("том")));
+        assertEquals(2, attached.searchAuthor("bulgakov").size());
+    }
+
+    @Test
+    void loadReturnsTheJournalSequence() throws IOException {
+        Path file = dir.resolve("c.lbc");
+        CatalogFile.write(file, sample().snapshot(), 7);
+        BookRepository loaded = new BookRepository();
+        assertEquals(7, CatalogFile.load(file, loaded));
+        assertEquals(rows(sample()), rows(loaded));
+    }
+
+    @Test
+    void damagedFileFailsTheChecksum() throws IOException {
+        Path file = dir.resolve("c.lbc");
+        CatalogFile.write(file, sample());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x20;
+        Files.write(file, bytes);
+        assertFalse(MappedCatalog.open(file).verifyChecksum());
+        assertThrows(IOException.class, () -> CatalogFile.read(file, new BookRepository()));
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        Path file = dir.resolve("c.lbc");
+        Files.writeString(file, "Война и мир,Толстой\n");
+        assertThrows(IOException.class, () -> CatalogFile.read(file, new BookRepository()));
+        assertThrows(IOException.class, () -> CatalogFile.load(file, new BookRepository()));
+    }
+
+    private static List<String> titles(List<BookRecord> books) {
+        List<String> titles = new ArrayList<>();
+        for (BookRecord book : books) titles.add(book.title);
+        return titles;
+    }
+}
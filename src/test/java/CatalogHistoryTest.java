@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CatalogHistoryTest {
+    private final BookRepository books = CatalogFileTest.sample();
+    private final CatalogHistory history = new CatalogHistory(books);
+
+    @Test
+    void undoAndRedoEachChange() {
+        List<String> start = CatalogFileTest.rows(books);
+        books.add("Белая гвардия", "Bulgakov");
+        List<String> added = CatalogFileTest.rows(books);
+        books.update(books.getAt(0).id, "Война и мир. Том 1", "Лев Толстой");
+        List<String> edited = CatalogFileTest.rows(books);
+        books.remove(books.getAt(1).id);
+        List<String> removed = CatalogFileTest.rows(books);
+
+        assertEquals("удаление книги", history.undo());
+        assertEquals(edited, CatalogFileTest.rows(books)); // Back in its place, with its id
+        assertEquals("изменение книги", history.undo());
+        assertEquals(added, CatalogFileTest.rows(books));
+        assertEquals("добавление книги", history.undo());
+        assertEquals(start, CatalogFileTest.rows(books));
+        assertNull(history.undo());
+
+        assertEquals("добавление книги", history.redo());
+        assertEquals(added, CatalogFileTest.rows(books));
+        history.redo();
+        history.redo();
+        assertEquals(removed, CatalogFileTest.rows(books));
+        assertNull(history.redo());
+    }
+
+    @Test
+    void stepUndoesItsChangesTogether() {
+        List<String> start = CatalogFileTest.rows(books);
+        history.begin("загрузка из файла");
+        books.add("Белая гвардия", "Bulgakov");
+        books.add("Бег", "Bulgakov");
+        books.remove(books.getAt(0).id);
+        history.end();
+        assertEquals("загрузка из файла", history.nextUndo());
+        history.undo();
+        assertEquals(start, CatalogFileTest.rows(books));
+    }
+
+    @Test
+    void newChangeDropsTheUndoneSteps() {
+        books.add("Белая гвардия", "Bulgakov");
+        history.undo();
+        assertEquals("добавление книги", history.nextRedo());
+        books.add("Бег", "Bulgakov");
+        assertNull(history.nextRedo());
+    }
+
+    // A change made to the book since the step is overwritten by undo
+    @Test
+    void undoOfAnEditAfterOtherEdits() {
+        long id = books.getAt(0).id;
+        String title = books.getAt(0).title;
+        books.update(id, "Первая правка", "Лев Толстой");
+        history.undo();
+        assertEquals(title, books.get(id).title);
+        books.update(id, "Вторая правка", "Лев Толстой");
+        books.update(id, "Третья правка", "Лев Толстой");
+        history.undo();
+        history.undo();
+        assertEquals(title, books.get(id).title);
+    }
+
+    @Test
+    void sortForgetsTheHistory() {
+        books.add("Белая гвардия", "Bulgakov");
+        books.sort(Comparator.comparing(book -> book.title));
+        assertNull(history.nextUndo());
+    }
+
+    @Test
+    void depthIsLimited() {
+        for (int i = 0; i < CatalogHistory.DEPTH + 5; i++) books.add("Книга " + i, "Автор");
+        int undone = 0;
+        while (history.undo() != null) undone++;
+        assertEquals(CatalogHistory.DEPTH, undone);
+    }
+}
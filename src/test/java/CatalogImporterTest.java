@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogImporterTest {
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    @TempDir
+    Path dir;
+
+    private BookRepository importBytes(byte[] contents, long imported, long skipped) throws IOException {
+        Path file = dir.resolve("books.txt");
+        Files.write(file, contents);
+        BookRepository books = new BookRepository();
+        CatalogImporter.Result result = CatalogImporter.importFile(file, books, null);
+        assertEquals(imported, result.imported, "imported");
+        assertEquals(skipped, result.skipped, "skipped");
+        return books;
+    }
+
+    private static byte[] withBom(String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.writeBytes(BOM);
+        bytes.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        return bytes.toByteArray();
+    }
+
+    // What Notepad saves: a BOM and one line without a line end, so the first buffer
+    // has no '\n' and is grown before anything is parsed
+    @Test
+    void bomBeforeSingleLineWithoutLineEnd() throws IOException {
+        BookRepository books = importBytes(withBom("Мастер и Маргарита,Булгаков"), 1, 0);
+        assertEquals("Мастер и Маргарита", books.getAt(0).title);
+    }
+
+    @Test
+    void bomBeforeSingleLineWithLineEnd() throws IOException {
+        BookRepository books = importBytes(withBom("Мастер и Маргарита,Булгаков\n"), 1, 0);
+        assertEquals("Мастер и Маргарита", books.getAt(0).title);
+    }
+
+    // A first line longer than CHUNK_SIZE grows the buffer as well
+    @Test
+    void bomBeforeFirstLineLongerThanChunk() throws IOException {
+        String title = "Т".repeat(CatalogImporter.CHUNK_SIZE / 2 + 1); // Two bytes each in UTF-8
+        BookRepository books = importBytes(withBom(title + ",Автор\nВторая,Автор\n"), 2, 0);
+        assertEquals(title, books.getAt(0).title);
+        assertEquals("Вторая", books.getAt(1).title);
+    }
+
+    @Test
+    void quotedFields() throws IOException {
+        String text = "\"Мир, труд, май\", Иванов\n"
+                + "\"Он сказал \"\"нет\"\"\",\"Петров\"\n"
+                + "Здравствуй, грусть, Саган\n"; // Unquoted: split at the last comma
+        BookRepository books = importBytes(text.getBytes(StandardCharsets.UTF_8), 3, 0);
+        assertEquals(List.of("Мир, труд, май|Иванов", "Он сказал \"нет\"|Петров", "Здравствуй, грусть|Саган"), rows(books));
+    }
+
+    @Test
+    void crlfLineEnds() throws IOException {
+        BookRepository books = importBytes("Война и мир,Толстой\r\nИдиот,Достоевский\r\n".getBytes(StandardCharsets.UTF_8), 2, 0);
+        assertEquals(List.of("Война и мир|Толстой", "Идиот|Достоевский"), rows(books));
+    }
+
+    // Blank lines are ignored; a line without an author or with a rejected character is skipped
+    @Test
+    void blankAndMalformedLines() throws IOException {
+        String text = "\nВойна и мир,Толстой\n   \nбез автора\nТитул,Автор2\n,Никто\n";
+        BookRepository books = importBytes(text.getBytes(StandardCharsets.UTF_8), 1, 3);
+        assertEquals(List.of("Война и мир|Толстой"), rows(books));
+    }
+
+    @Test
+    void duplicatesAreCounted() throws IOException {
+        Path file = dir.resolve("books.txt");
+        Files.writeString(file, "Война и мир,Толстой\nвойна  и МИР,толстой\n");
+        BookRepository books = new BookRepository();
+        CatalogImporter.Result result = CatalogImporter.importFile(file, books, BookRepository.Duplicates.SKIP, null);
+        assertEquals(1, result.imported);
+        assertEquals(1, result.duplicates);
+    }
+
+    // Lines cut by the chunk boundaries are carried over to the next chunk, and the
+    // parse of a chunk is split into segments at line ends
+    @Test
+    void fileOfSeveralChunks() throws IOException {
+        StringBuilder text = new StringBuilder();
+        int count = 0;
+        while (text.length() < CatalogImporter.CHUNK_SIZE * 2 + 12345) text.append("Книга номер ").append(count++).append(",Автор ").append((char) ('А' + count % 32)).append('\n');
+        List<Long> reported = new ArrayList<>();
+        Path file = dir.resolve("books.txt");
+        Files.writeString(file, text);
+        BookRepository books = new BookRepository();
+        CatalogImporter.Result result = CatalogImporter.importFile(file, books, BookRepository.Duplicates.KEEP, (done, total, imported) -> reported.add(done));
+        assertEquals(count, result.imported);
+        assertEquals(0, result.skipped);
+        for (int i = 0; i < count; i += 9973) assertEquals("Книга номер " + i, books.getAt(i).title);
+        assertEquals("Книга номер " + (count - 1), books.getAt(count - 1).title);
+        assertTrue(reported.size() >= 3, "progress per chunk");
+        assertEquals(Files.size(file), reported.get(reported.size() - 1));
+    }
+
+    private static List<String> rows(BookRepository books) {
+        List<String> rows = new ArrayList<>();
+        for (BookRecord book : books) rows.add(book.title + "|" + book.author);
+        return rows;
+    }
+}
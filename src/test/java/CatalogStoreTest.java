@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogStoreTest {
+    @TempDir
+    Path dir;
+
+    private Path file;
+
+    // A store over a snapshot of CatalogFileTest.sample()
+    private CatalogStore open(BookRepository books) throws IOException {
+        file = dir.resolve("live").resolve("c.lbc");
+        Files.createDirectories(file.getParent());
+        CatalogFile.write(file, CatalogFileTest.sample());
+        CatalogStore store = new CatalogStore(file, books);
+        store.open();
+        return store;
+    }
+
+    // Copies the files as the process left them, without closing anything, and opens the
+    // copy like the next start would; the journal loses its last cut bytes
+    private BookRepository restart(int cut) throws IOException {
+        Path copy = dir.resolve("restart" + System.nanoTime()).resolve("c.lbc");
+        Files.createDirectories(copy.getParent());
+        for (String suffix : List.of("", ".journal", ".journal.old")) {
+            Path from = file.resolveSibling(file.getFileName() + suffix);
+            if (Files.exists(from)) Files.copy(from, copy.resolveSibling(copy.getFileName() + suffix));
+        }
+        Path journal = copy.resolveSibling("c.lbc.journal");
+        if (cut > 0) {
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - cut);
+            }
+        }
+        BookRepository books = new BookRepository();
+        new CatalogStore(copy, books).open();
+        return books;
+    }
+
+    @Test
+    void replayAfterCrash() throws IOException {
+        BookRepository books = new BookRepository();
+        CatalogStore store = open(books);
+        CatalogHistory history = new CatalogHistory(books);
+        books.add("Белая гвардия", "Bulgakov");
+        books.update(books.getAt(0).id, "Война и мир. Том 1", "Лев Толстой");
+        books.remove(books.getAt(1).id);
+        books.remove(books.getAt(2).id);
+        history.undo(); // Puts the book back in its place
+        store.flush();
+        assertEquals(CatalogFileTest.rows(books), CatalogFileTest.rows(restart(0)));
+    }
+
+    // A record cut off by the crash is dropped; the changes before it are kept
+    @Test
+    void tornLastRecord() throws IOException {
+        BookRepository books = new BookRepository();
+        CatalogStore store = open(books);
+        books.add("Белая гвардия", "Bulgakov");
+        List<String> before = CatalogFileTest.rows(books);
+        books.add("Бег", "Bulgakov");
+        store.flush();
+        BookRepository restarted = restart(3);
+        assertEquals(before, CatalogFileTest.rows(restarted));
+        // The next book gets the id of the lost one, as it was never saved
+        assertEquals(books.getAt(books.size() - 1).id, restarted.add("Бег", "Bulgakov").id);
+    }
+
+    // A sort is not journaled, so it compacts the journal into a new snapshot; the
+    // changes made while that runs go to the new journal
+    @Test
+    void compactionKeepsTheChanges() throws Exception {
+        BookRepository books = new BookRepository();
+        CatalogStore store = open(books);
+        books.add("Белая гвардия", "Bulgakov");
+        books.sort(Comparator.comparing(book -> book.title));
+        books.add("Бег", "Bulgakov");
+        books.remove(books.getAt(0).id);
+        store.flush();
+        for (int i = 0; i < 500 && !compacted(); i++) Thread.sleep(10);
+        assertTrue(compacted());
+        assertEquals(CatalogFileTest.rows(books), CatalogFileTest.rows(restart(0)));
+    }
+
+    private boolean compacted() throws IOException {
+        return !Files.exists(file.resolveSibling("c.lbc.journal.old")) && MappedCatalog.open(file).sequence > 0;
+    }
+
+    @Test
+    void discardedSessionLeavesTheSnapshot() throws IOException {
+        BookRepository books = new BookRepository();
+        CatalogStore store = open(books);
+        books.add("Белая гвардия", "Bulgakov");
+        books.remove(books.getAt(0).id);
+        store.flush();
+        assertTrue(store.discardSession());
+        store.close();
+        assertEquals(CatalogFileTest.rows(CatalogFileTest.sample()), CatalogFileTest.rows(restart(0)));
+    }
+
+    // After a compaction only the changes made since can be dropped
+    @Test
+    void discardAfterCompactionKeepsTheCompactedChanges() throws Exception {
+        BookRepository books = new BookRepository();
+        CatalogStore store = open(books);
+        books.add("Белая гвардия", "Bulgakov");
+        books.sort(Comparator.comparing(book -> book.title));
+        for (int i = 0; i < 500 && !compacted(); i++) Thread.sleep(10);
+        List<String> compacted = CatalogFileTest.rows(books);
+        books.add("Бег", "Bulgakov");
+        assertFalse(store.discardSession());
+        store.close();
+        assertEquals(compacted, CatalogFileTest.rows(restart(0)));
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Bytes per book of a filled catalog, its indexes included. The ceilings leave room
+// for the differences between JVMs; the measured values are printed for comparison.
+class FootprintTest {
+    private static final int BOOKS = 200_000;
+    private static final int AUTHORS = 2_000;
+
+    private static long used() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long least = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            least = Math.min(least, memory.getHeapMemoryUsage().getUsed());
+        }
+        return least;
+    }
+
+    private static long perBook(BookRepository.Storage storage, int authors) {
+        long before = used();
+        BookRepository books = new BookRepository(BookRepository.DEFAULT_GRAM_LENGTH, storage);
+        for (int i = 0; i < BOOKS; i++) {
+            // A fresh String for each book, as a file import gives them
+            books.add("Книга номер " + i, new String("Автор " + (i % authors)));
+        }
+        books.searchTitle("номер"); // The lazily built indexes count too
+        long bytes = (used() - before) / BOOKS;
+        System.out.println(storage + ", " + authors + " authors: " + bytes + " B/book");
+        assertEquals(BOOKS, books.size());
+        return bytes;
+    }
+
+    @Test
+    void bytesPerBook() {
+        for (BookRepository.Storage storage : BookRepository.Storage.values()) {
+            long bytes = perBook(storage, AUTHORS);
+            assertTrue(bytes < 700, storage + ": " + bytes + " B/book");
+        }
+    }
+
+    // The books of one author keep a single copy of its name
+    @Test
+    void authorsAreNotCopied() {
+        long shared = perBook(BookRepository.Storage.OBJECTS, AUTHORS);
+        long distinct = perBook(BookRepository.Storage.OBJECTS, BOOKS);
+        assertTrue(shared + 24 < distinct, shared + " B/book against " + distinct);
+    }
+}
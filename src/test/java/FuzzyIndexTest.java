@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FuzzyIndexTest {
+    @Test
+    void keysAreTransliterated() {
+        assertEquals(FuzzyIndex.keys("Булгаков"), FuzzyIndex.keys("Bulgakov"));
+        assertEquals(FuzzyIndex.keys("Достоевский"), FuzzyIndex.keys("Достоевскии"));
+        assertEquals(FuzzyIndex.keys("Ёлка"), FuzzyIndex.keys("елка"));
+        assertEquals(List.of("voina", "i", "mir"), FuzzyIndex.keys("Война и мир!"));
+    }
+
+    @Test
+    void typosAllowedGrowWithTheWord() {
+        assertEquals(0, FuzzyIndex.maxDistance("mir"));
+        assertEquals(1, FuzzyIndex.maxDistance("tolstoy"));
+        assertEquals(2, FuzzyIndex.maxDistance("dostoevskiy"));
+    }
+
+    // The trie walk reports exactly the keys a full Levenshtein table gives within the
+    // distance, with that distance; above one typo only keys with the same first letter
+    @Test
+    void searchMatchesPlainLevenshtein() {
+        Random random = new Random(17);
+        FuzzyIndex index = new FuzzyIndex(book -> book.title);
+        Map<Long, String> keyOf = new HashMap<>();
+        for (long id = 1; id <= 3000; id++) {
+            String key = word(random, 2 + random.nextInt(9));
+            keyOf.put(id, key);
+            index.add(new BookRecord(id, key, "a"));
+        }
+        for (int query = 0; query < 300; query++) {
+            String key = query % 2 == 0 ? word(random, 1 + random.nextInt(10)) : mistype(random, keyOf.get(1L + random.nextInt(3000)));
+            for (int maxDistance = 1; maxDistance <= 2; maxDistance++) {
+                Map<String, Integer> expected = new TreeMap<>();
+                for (String candidate : keyOf.values()) {
+                    int distance = levenshtein(key, candidate);
+                    boolean sameStart = !key.isEmpty() && !candidate.isEmpty() && key.charAt(0) == candidate.charAt(0);
+                    if (distance <= maxDistance && (maxDistance == 1 || sameStart)) expected.put(candidate, distance);
+                }
+                Map<String, Integer> found = new TreeMap<>();
+                index.search(key, maxDistance, (ids, distance) -> {
+                    String previous = keyOf.get(ids.get(0));
+                    assertTrue(found.put(previous, distance) == null, "reported twice: " + previous);
+                });
+                assertEquals(expected, found, key + " within " + maxDistance);
+            }
+        }
+    }
+
+    @Test
+    void removedBooksAreNotFound() {
+        FuzzyIndex index = new FuzzyIndex(book -> book.author);
+        BookRecord book = new BookRecord(1, "Мастер и Маргарита", "Булгаков");
+        index.add(book);
+        index.remove(book);
+        int[] found = {0};
+        index.search("bulgakv", 1, (ids, distance) -> found[0] += ids.size());
+        assertEquals(0, found[0]);
+    }
+
+    @Test
+    void repositoryFindsMistypedAuthors() {
+        BookRepository books = CatalogFileTest.sample();
+        List<BookRecord> found = books.searchAuthorFuzzy("Булгакв");
+        assertEquals(1, found.size());
+        assertEquals("Bulgakov", found.get(0).author);
+        assertEquals(2, books.searchAuthorFuzzy("Толстои").size());
+    }
+
+    private static String word(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) word.append((char) ('a' + random.nextInt(5)));
+        return word.toString();
+    }
+
+    // One or two random edits
+    private static String mistype(Random random, String word) {
+        StringBuilder typed = new StringBuilder(word);
+        for (int edits = 1 + random.nextInt(2); edits > 0; edits--) {
+            int at = random.nextInt(typed.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0: typed.insert(at, (char) ('a' + random.nextInt(5))); break;
+                case 1: if (at < typed.length()) typed.deleteCharAt(at); break;
+                default: if (at < typed.length()) typed.setCharAt(at, (char) ('a' + random.nextInt(5)));
+            }
+        }
+        return typed.toString();
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] table = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) table[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) table[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int change = table[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                table[i][j] = Math.min(change, Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+            }
+        }
+        return table[a.length()][b.length()];
+    }
+}